@@ -393,7 +393,8 @@ public class Client {
             out("  --dockerfile-path <file>     Path for the dockerfile, defaults to /Dockerfile/");
             out("  --cwl-path <file>            Path for the CWL document, defaults to /Dockstore.cwl");
             out("  --toolname <toolname>        Name of the tool, can be omitted");
-            out("  --registry <registry>        Docker registry, can be omitted, defaults to registry.hub.docker.com");
+            out("  --registry <registry>        Docker registry, can be omitted, defaults to registry.hub.docker.com. Any host other than");
+            out("                               quay.io and registry.hub.docker.com is taken to be a private registry");
             out("");
         } else {
             final String name = reqVal(args, "--name");
@@ -410,7 +411,15 @@ public class Client {
             container.setMode(ModeEnum.MANUAL_IMAGE_PATH);
             container.setName(name);
             container.setNamespace(namespace);
-            container.setRegistry("quay.io".equals(registry) ? RegistryEnum.QUAY_IO : RegistryEnum.DOCKER_HUB);
+            if ("quay.io".equals(registry)) {
+                container.setRegistry(RegistryEnum.QUAY_IO);
+            } else if ("registry.hub.docker.com".equals(registry)) {
+                container.setRegistry(RegistryEnum.DOCKER_HUB);
+            } else {
+                // anything else is the host of a private registry, which is only known from the path
+                container.setRegistry(RegistryEnum.PRIVATE_REGISTRY);
+                container.setPath(registry + '/' + namespace + '/' + name);
+            }
             container.setDefaultDockerfilePath(dockerfilePath);
             container.setDefaultCwlPath(cwlPath);
             container.setIsPublic(true);
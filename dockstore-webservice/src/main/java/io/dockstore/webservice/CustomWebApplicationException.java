@@ -17,6 +17,7 @@
 package io.dockstore.webservice;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -30,4 +31,15 @@ public class CustomWebApplicationException extends WebApplicationException {
         super(Response.status(status).entity(message).type(MediaType.TEXT_PLAIN).build());
     }
 
+    /**
+     * @param message
+     * @param status
+     * @param retryAfterSeconds
+     *            sent as Retry-After, for when the request can be made again
+     */
+    public CustomWebApplicationException(String message, int status, long retryAfterSeconds) {
+        super(Response.status(status).header(HttpHeaders.RETRY_AFTER, retryAfterSeconds).entity(message).type(MediaType.TEXT_PLAIN)
+                .build());
+    }
+
 }
@@ -16,7 +16,11 @@
  */
 package io.dockstore.webservice;
 
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+
+import javax.ws.rs.core.UriBuilder;
 
 import org.apache.http.client.HttpClient;
 import org.eclipse.jetty.servlet.FilterHolder;
@@ -24,7 +28,10 @@ import org.eclipse.jetty.servlets.CrossOriginFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
 
 import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.Group;
@@ -33,28 +40,43 @@ import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.ContainerSearchEngine;
+import io.dockstore.webservice.helpers.OciRegistry;
+import io.dockstore.webservice.helpers.RefreshExecutor;
+import io.dockstore.webservice.helpers.RefreshJobManager;
+import io.dockstore.webservice.helpers.ScheduledRefresher;
+import io.dockstore.webservice.helpers.UpstreamHttpClientBuilder;
+import io.dockstore.webservice.jdbi.ClusterInvalidation;
+import io.dockstore.webservice.jdbi.ClusterLeader;
 import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dockstore.webservice.jdbi.ContainerSearchIndex;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.GroupDAO;
 import io.dockstore.webservice.jdbi.LabelDAO;
+import io.dockstore.webservice.jdbi.RegistryVersion;
 import io.dockstore.webservice.jdbi.TagDAO;
 import io.dockstore.webservice.jdbi.TokenDAO;
+import io.dockstore.webservice.jdbi.UnitOfWorkRunner;
 import io.dockstore.webservice.jdbi.UserDAO;
 import io.dockstore.webservice.resources.BitbucketOrgAuthenticationResource;
+import io.dockstore.webservice.resources.ConditionalResponseCache;
 import io.dockstore.webservice.resources.DockerRepoResource;
 import io.dockstore.webservice.resources.DockerRepoTagResource;
 import io.dockstore.webservice.resources.GitHubComAuthenticationResource;
 import io.dockstore.webservice.resources.GitHubRepoResource;
+import io.dockstore.webservice.resources.JobResource;
 import io.dockstore.webservice.resources.QuayIOAuthenticationResource;
+import io.dockstore.webservice.resources.ResourceUtilities;
+import io.dockstore.webservice.resources.SerializedResponseCache;
 import io.dockstore.webservice.resources.TemplateHealthCheck;
 import io.dockstore.webservice.resources.TokenResource;
 import io.dockstore.webservice.resources.UserResource;
+import io.dockstore.webservice.resources.WebhookResource;
 import io.dropwizard.Application;
 import io.dropwizard.assets.AssetsBundle;
 import io.dropwizard.auth.AuthFactory;
 import io.dropwizard.auth.CachingAuthenticator;
 import io.dropwizard.auth.oauth.OAuthFactory;
-import io.dropwizard.client.HttpClientBuilder;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.hibernate.HibernateBundle;
 import io.dropwizard.setup.Bootstrap;
@@ -130,22 +152,84 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         final TagDAO tagDAO = new TagDAO(hibernate.getSessionFactory());
         final LabelDAO labelDAO = new LabelDAO(hibernate.getSessionFactory());
         final FileDAO fileDAO = new FileDAO(hibernate.getSessionFactory());
+        final UnitOfWorkRunner unitOfWork = new UnitOfWorkRunner(hibernate.getSessionFactory());
+        // tokens are looked up by hash, fill it in for the ones stored before there was one
+        unitOfWork.run(tokenDAO::hashUnhashed);
 
         LOG.info("This is our custom logger saying that we're about to load authenticators");
         // setup authentication
         SimpleAuthenticator authenticator = new SimpleAuthenticator(tokenDAO);
         CachingAuthenticator<String, Token> cachingAuthenticator = new CachingAuthenticator<>(environment.metrics(), authenticator,
-                configuration.getAuthenticationCachePolicy());
+                CacheBuilder.from(configuration.getAuthenticationCachePolicy()).recordStats());
+        registerCacheMetrics(environment.metrics(), cachingAuthenticator);
         environment.jersey().register(AuthFactory.binder(new OAuthFactory<>(cachingAuthenticator, "SUPER SECRET STUFF", Token.class)));
+        environment.jersey().register(new QueryParamExceptionMapper());
 
         final ObjectMapper mapper = environment.getObjectMapper();
 
-        final HttpClient httpClient = new HttpClientBuilder(environment).using(configuration.getHttpClientConfiguration()).build(getName());
+        // one pool of kept-alive connections, with a share set aside for each registry and source code host
+        final HttpClient httpClient = new UpstreamHttpClientBuilder(environment, configuration.getHttpClientConfiguration()).build(getName());
+
+        // network calls made during refreshes are spread over this pool
+        final RefreshConfiguration refreshConfiguration = configuration.getRefreshConfiguration();
+        final ExecutorService refreshPool = environment.lifecycle().executorService("refresh-%d")
+                .minThreads(refreshConfiguration.getThreads()).maxThreads(refreshConfiguration.getThreads()).build();
+        final RefreshExecutor refreshExecutor = new RefreshExecutor(refreshPool, refreshConfiguration.getMaxRequestsPerHost());
+        configureUpstreamCalls(refreshConfiguration, environment);
+
+        // full-text search lives outside the Hibernate mapping, set it up once the schema is there
+        unitOfWork.run(() -> new ContainerSearchIndex(hibernate.getSessionFactory()).install());
+        final ContainerSearchEngine searchEngine = new ContainerSearchEngine(hibernate.getSessionFactory(),
+                configuration.isInMemorySearch());
+        unitOfWork.run(() -> searchEngine.rebuild(containerDAO.findAllRegistered()));
+
+        // public listings are served already serialized until the next write
+        final ResponseCacheConfiguration responseCacheConfiguration = configuration.getResponseCacheConfiguration();
+        final RegistryVersion registryVersion = RegistryVersion.install(hibernate.getSessionFactory());
+        final SerializedResponseCache responseCache = new SerializedResponseCache(registryVersion, unitOfWork, mapper,
+                responseCacheConfiguration.getMaxBytes(), responseCacheConfiguration.isGzip());
+
+        // other nodes sharing the database say what they changed, drop it from the caches here
+        final ClusterInvalidation clusterInvalidation = new ClusterInvalidation(configuration.getDataSourceFactory());
+        clusterInvalidation.on(ClusterInvalidation.TOKEN,
+                contentHash -> cachingAuthenticator.invalidateAll(credentials -> contentHash.equals(Token.hash(credentials))));
+        clusterInvalidation.on(ClusterInvalidation.CONTAINER, key -> {
+            final long containerId = containerDAO.evict(key);
+            registryVersion.increment();
+            if (searchEngine.isEnabled()) {
+                unitOfWork.run(() -> {
+                    final Container container = containerDAO.findById(containerId);
+                    if (container == null) {
+                        searchEngine.remove(Collections.singletonList(containerId));
+                    } else {
+                        searchEngine.updateOnCommit(container);
+                    }
+                });
+            }
+        });
+        environment.lifecycle().manage(clusterInvalidation);
+
+        // refreshes started through /jobs run on their own threads, each with its own session
+        final ExecutorService jobPool = environment.lifecycle().executorService("refresh-job-%d")
+                .minThreads(refreshConfiguration.getJobThreads()).maxThreads(refreshConfiguration.getJobThreads()).build();
+        final RefreshJobManager jobManager = new RefreshJobManager(jobPool, unitOfWork, httpClient,
+                mapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO, configuration.getBitbucketClientID(),
+                configuration.getBitbucketClientSecret(), refreshExecutor, searchEngine);
+        environment.jersey().register(new JobResource(userDAO, containerDAO, jobManager));
+        final WebhookConfiguration webhookConfiguration = configuration.getWebhookConfiguration();
+        environment.jersey().register(new WebhookResource(containerDAO, jobManager, mapper, webhookConfiguration.isEnabled()));
+
+        // registered containers are also refreshed in the background, spread over the configured interval
+        environment.lifecycle().manage(new ScheduledRefresher(environment.lifecycle().scheduledExecutorService("scheduled-refresh-%d").build(),
+                unitOfWork, containerDAO, jobManager, new ClusterLeader(configuration.getDataSourceFactory(), ScheduledRefresher.LEADER_LOCK),
+                refreshConfiguration.getScheduledInterval().toMilliseconds()));
+
         environment.jersey().register(
                 new DockerRepoResource(mapper, httpClient, userDAO, tokenDAO, containerDAO, tagDAO, labelDAO, fileDAO, configuration
-                        .getBitbucketClientID(), configuration.getBitbucketClientSecret()));
+                        .getBitbucketClientID(), configuration.getBitbucketClientSecret(), refreshExecutor, searchEngine, responseCache,
+                        webhookUrl(configuration)));
         environment.jersey().register(new GitHubRepoResource(tokenDAO, userDAO));
-        environment.jersey().register(new DockerRepoTagResource(userDAO, containerDAO, tagDAO));
+        environment.jersey().register(new DockerRepoTagResource(userDAO, containerDAO, tagDAO, fileDAO));
 
         final GitHubComAuthenticationResource resource3 = new GitHubComAuthenticationResource(configuration.getGithubClientID(),
                 configuration.getGithubRedirectURI());
@@ -160,7 +244,7 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
 
         environment.jersey().register(
                 new UserResource(mapper, httpClient, tokenDAO, userDAO, groupDAO, containerDAO, tagDAO, fileDAO, configuration
-                        .getBitbucketClientID(), configuration.getBitbucketClientSecret()));
+                        .getBitbucketClientID(), configuration.getBitbucketClientSecret(), refreshExecutor, searchEngine));
 
         // swagger stuff
 
@@ -190,4 +274,41 @@ public class DockstoreWebserviceApplication extends Application<DockstoreWebserv
         // cors.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), false, environment.getApplicationContext().getContextPath() +
         // "*");
     }
+
+    /**
+     * @return where Quay.io, GitHub and Bitbucket should send notifications about containers, null when webhooks are off
+     */
+    /**
+     * Set up how calls to GitHub, Quay, Bitbucket and image registries are paced, cached and restricted
+     */
+    private static void configureUpstreamCalls(RefreshConfiguration refreshConfiguration, Environment environment) {
+        ResourceUtilities.getRateLimitGovernor().setMaxWaitMillis(refreshConfiguration.getMaxRateLimitWait().toMilliseconds());
+        ResourceUtilities.setResponseCache(new ConditionalResponseCache(refreshConfiguration.getConditionalCacheCharacters(),
+                ResourceUtilities.getRateLimitGovernor()));
+        OciRegistry.setManifestLookups(environment.lifecycle().executorService("registry-manifest-%d")
+                .minThreads(refreshConfiguration.getManifestThreads()).maxThreads(refreshConfiguration.getManifestThreads()).build());
+        OciRegistry.setAllowedHosts(refreshConfiguration.getPrivateRegistries());
+        OciRegistry.setInsecureHosts(refreshConfiguration.getInsecureRegistries());
+    }
+
+    private static String webhookUrl(DockstoreWebserviceConfiguration configuration) {
+        if (!configuration.getWebhookConfiguration().isEnabled()) {
+            return null;
+        }
+        return UriBuilder.fromPath("/webhooks").scheme(configuration.getScheme()).host(configuration.getHostname())
+                .port(Integer.parseInt(configuration.getPort())).build().toString();
+    }
+
+    /**
+     * Export the hits, evictions and hit ratio of the authentication cache, next to the misses that CachingAuthenticator reports itself.
+     */
+    private static void registerCacheMetrics(MetricRegistry metrics, CachingAuthenticator<String, Token> cachingAuthenticator) {
+        metrics.register(MetricRegistry.name(SimpleAuthenticator.class, "cache-hits"),
+                (Gauge<Long>) () -> cachingAuthenticator.stats().hitCount());
+        metrics.register(MetricRegistry.name(SimpleAuthenticator.class, "cache-evictions"),
+                (Gauge<Long>) () -> cachingAuthenticator.stats().evictionCount());
+        metrics.register(MetricRegistry.name(SimpleAuthenticator.class, "cache-hit-ratio"),
+                (Gauge<Double>) () -> cachingAuthenticator.stats().hitRate());
+        metrics.register(MetricRegistry.name(SimpleAuthenticator.class, "cache-size"), (Gauge<Long>) cachingAuthenticator::size);
+    }
 }
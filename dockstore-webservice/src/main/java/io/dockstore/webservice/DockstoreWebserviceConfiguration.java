@@ -3,7 +3,6 @@ package io.dockstore.webservice;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.cache.CacheBuilderSpec;
 import io.dropwizard.Configuration;
-import io.dropwizard.client.HttpClientConfiguration;
 import io.dropwizard.db.DataSourceFactory;
 import org.hibernate.validator.constraints.NotEmpty;
 
@@ -18,7 +17,7 @@ public class DockstoreWebserviceConfiguration extends Configuration {
 
     @Valid
     @NotNull
-    private HttpClientConfiguration httpClient = new HttpClientConfiguration();
+    private UpstreamHttpClientConfiguration httpClient = new UpstreamHttpClientConfiguration();
 
     @NotEmpty
     private String template;
@@ -47,6 +46,20 @@ public class DockstoreWebserviceConfiguration extends Configuration {
     @NotNull
     private CacheBuilderSpec authenticationCachePolicy;
 
+    @Valid
+    @NotNull
+    private RefreshConfiguration refresh = new RefreshConfiguration();
+
+    private boolean inMemorySearch;
+
+    @Valid
+    @NotNull
+    private ResponseCacheConfiguration responseCache = new ResponseCacheConfiguration();
+
+    @Valid
+    @NotNull
+    private WebhookConfiguration webhooks = new WebhookConfiguration();
+
     @NotEmpty
     private String hostname;
 
@@ -62,7 +75,7 @@ public class DockstoreWebserviceConfiguration extends Configuration {
     }
 
     @JsonProperty("httpClient")
-    public HttpClientConfiguration getHttpClientConfiguration() {
+    public UpstreamHttpClientConfiguration getHttpClientConfiguration() {
         return httpClient;
     }
 
@@ -124,7 +137,7 @@ public class DockstoreWebserviceConfiguration extends Configuration {
      *            the httpClient to set
      */
     @JsonProperty("httpClient")
-    public void setHttpClientConfiguration(HttpClientConfiguration httpClient) {
+    public void setHttpClientConfiguration(UpstreamHttpClientConfiguration httpClient) {
         this.httpClient = httpClient;
     }
 
@@ -221,6 +234,49 @@ public class DockstoreWebserviceConfiguration extends Configuration {
         this.authenticationCachePolicy = authenticationCachePolicy;
     }
 
+    @JsonProperty("refresh")
+    public RefreshConfiguration getRefreshConfiguration() {
+        return refresh;
+    }
+
+    @JsonProperty("refresh")
+    public void setRefreshConfiguration(RefreshConfiguration refresh) {
+        this.refresh = refresh;
+    }
+
+    /**
+     * @return true to answer container searches from an index held in memory rather than from the database
+     */
+    @JsonProperty
+    public boolean isInMemorySearch() {
+        return inMemorySearch;
+    }
+
+    @JsonProperty
+    public void setInMemorySearch(boolean inMemorySearch) {
+        this.inMemorySearch = inMemorySearch;
+    }
+
+    @JsonProperty("responseCache")
+    public ResponseCacheConfiguration getResponseCacheConfiguration() {
+        return responseCache;
+    }
+
+    @JsonProperty("responseCache")
+    public void setResponseCacheConfiguration(ResponseCacheConfiguration responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    @JsonProperty("webhooks")
+    public WebhookConfiguration getWebhookConfiguration() {
+        return webhooks;
+    }
+
+    @JsonProperty("webhooks")
+    public void setWebhookConfiguration(WebhookConfiguration webhooks) {
+        this.webhooks = webhooks;
+    }
+
     public String getHostname() {
         return hostname;
     }
@@ -18,12 +18,16 @@ package io.dockstore.webservice;
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -45,8 +49,12 @@ import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.TokenType;
 import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.BuildIndex;
+import io.dockstore.webservice.helpers.ImageBuild;
 import io.dockstore.webservice.helpers.ImageRegistryFactory;
 import io.dockstore.webservice.helpers.ImageRegistryInterface;
+import io.dockstore.webservice.helpers.RefreshExecutor;
+import io.dockstore.webservice.helpers.RefreshProgress;
 import io.dockstore.webservice.helpers.SourceCodeRepoFactory;
 import io.dockstore.webservice.helpers.SourceCodeRepoInterface;
 import io.dockstore.webservice.helpers.SourceCodeRepoInterface.FileResponse;
@@ -81,26 +89,77 @@ public final class Helper {
         }
     }
 
-    private static void updateFiles(Container container, final HttpClient client, final TagDAO tagDAO, final FileDAO fileDAO,
-            final Token githubToken, final Token bitbucketToken) {
-        Set<Tag> tags = container.getTags();
+    /**
+     * Reloads the cached files for tags that changed since the last refresh, or that have no files yet. Tags whose image, reference and
+     * paths are the same as last time keep their files. Files are fetched in parallel, the database work stays on this thread.
+     *
+     * @param containers
+     * @param changedTags
+     *            tags that are new or whose image id or reference changed in this refresh
+     * @param client
+     * @param fileDAO
+     * @param githubToken
+     * @param bitbucketToken
+     * @param executor
+     * @param unlinkedFiles
+     *            files that tags stopped referring to are added here, they may be unused now
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    private static void updateFiles(final List<Container> containers, final Set<Tag> changedTags, final HttpClient client,
+            final FileDAO fileDAO, final Token githubToken, final Token bitbucketToken, final RefreshExecutor executor,
+            final Set<SourceFile> unlinkedFiles) {
+        final List<Tag> tags = new ArrayList<>();
+        final List<Future<List<SourceFile>>> loadedFiles = new ArrayList<>();
+        for (final Container container : containers) {
+            final String gitHost = getGitHost(container);
+            for (final Tag tag : container.getTags()) {
+                // paths and references edited by users clear the files, see Tag.updateByUser
+                if (!changedTags.contains(tag) && !tag.getSourceFiles().isEmpty()) {
+                    LOG.info("Tag {} is unchanged, keeping its files", tag.getName());
+                    continue;
+                }
+                tags.add(tag);
+                loadedFiles.add(executor.submit(gitHost, () -> loadFiles(client, bitbucketToken, githubToken, container, tag)));
+            }
+        }
 
-        for (Tag tag : tags) {
+        final List<List<SourceFile>> newFilesByTag = new ArrayList<>();
+        final Set<String> checksums = new HashSet<>();
+        for (Future<List<SourceFile>> loaded : loadedFiles) {
+            final List<SourceFile> newFiles = executor.getResult(loaded);
+            for (SourceFile file : newFiles) {
+                checksums.add(file.getSha256());
+            }
+            newFilesByTag.add(newFiles);
+        }
+
+        // files are stored once per content, reuse what is already there, or what a concurrent refresh stores first
+        fileDAO.lockContents(checksums);
+        final Map<String, SourceFile> storedFiles = new HashMap<>();
+        for (SourceFile file : fileDAO.findByChecksums(checksums)) {
+            storedFiles.put(file.getType() + ":" + file.getSha256(), file);
+        }
+        final List<SourceFile> createdFiles = new ArrayList<>();
+
+        for (int i = 0; i < tags.size(); i++) {
+            final Tag tag = tags.get(i);
             LOG.info("Updateing files for tag {}", tag.getName());
 
-            List<SourceFile> newFiles = loadFiles(client, bitbucketToken, githubToken, container, tag);
+            unlinkedFiles.addAll(tag.getSourceFiles());
             tag.getSourceFiles().clear();
 
             boolean hasCwl = false;
             boolean hasDockerfile = false;
 
-            for (SourceFile newFile : newFiles) {
-                long id = fileDAO.create(newFile);
-                SourceFile file = fileDAO.findById(id);
+            for (SourceFile newFile : newFilesByTag.get(i)) {
+                SourceFile file = storedFiles.get(newFile.getType() + ":" + newFile.getSha256());
+                if (file == null) {
+                    file = newFile;
+                    storedFiles.put(file.getType() + ":" + file.getSha256(), file);
+                    createdFiles.add(file);
+                }
                 tag.addSourceFile(file);
 
-                // oldFiles.add(newFile);
-                // }
                 if (file.getType() == FileType.DOCKERFILE) {
                     hasDockerfile = true;
                     LOG.info("HAS Dockerfile");
@@ -113,6 +172,7 @@ public final class Helper {
 
             tag.setValid(hasCwl && hasDockerfile);
         }
+        fileDAO.createAll(createdFiles);
     }
 
     /**
@@ -127,26 +187,37 @@ public final class Helper {
      * @param bitbucketToken
      * @param tagMap
      *            docker image path -> list of corresponding Tags
+     * @param executor
+     * @param progress
      */
     @SuppressWarnings("checkstyle:parameternumber")
     private static void updateTags(final Iterable<Container> containers, final HttpClient client, final ContainerDAO containerDAO,
             final TagDAO tagDAO, final FileDAO fileDAO, final Token githubToken, final Token bitbucketToken,
-            final Map<String, List<Tag>> tagMap) {
+            final Map<String, List<Tag>> tagMap, final RefreshExecutor executor, final RefreshProgress progress) {
+        final List<Container> updatedContainers = new ArrayList<>();
+        final Set<Tag> changedTags = new HashSet<>();
+        final Set<SourceFile> unlinkedFiles = new HashSet<>();
+        // before tags are replaced, so that the ones deleted are evicted too
+        containerDAO.evictOnCommit(containers);
         for (final Container container : containers) {
             LOG.info("--------------- Updating tags for {} ---------------", container.getToolPath());
             List<Tag> existingTags = new ArrayList(container.getTags());
 
             // TODO: For a manually added container with a Quay.io registry, auto-populate its tags if it does not have any.
             // May find another way so that tags are initially auto-populated, and never auto-populated again.
-            if (container.getMode() != ContainerMode.MANUAL_IMAGE_PATH
-                    || (container.getRegistry() == Registry.QUAY_IO && existingTags.isEmpty())) {
+            // Containers on Docker Hub and private registries are always added manually, the tags they have are kept up to date with the
+            // images they point to.
+            final boolean manual = container.getMode() == ContainerMode.MANUAL_IMAGE_PATH;
+            final boolean populate = !manual || existingTags.isEmpty();
+            if (!manual || existingTags.isEmpty() || container.getRegistry() != Registry.QUAY_IO) {
 
                 List<Tag> newTags = tagMap.get(container.getPath());
                 Map<String, Set<SourceFile>> fileMap = new HashMap<>();
 
                 if (newTags == null) {
                     LOG.info("Tags for container {} did not get updated because new tags were not found", container.getPath());
-                    return;
+                    progress.failed(container.getToolPath(), "new tags were not found");
+                    continue;
                 }
 
                 List<Tag> toDelete = new ArrayList<>(0);
@@ -159,7 +230,7 @@ public final class Helper {
                             break;
                         }
                     }
-                    if (!exists) {
+                    if (!exists && !manual) {
                         toDelete.add(oldTag);
                         iterator.remove();
                     }
@@ -173,29 +244,33 @@ public final class Helper {
                         if (newTag.getName().equals(oldTag.getName())) {
                             exists = true;
 
+                            final String oldImageId = oldTag.getImageId();
+                            final String oldReference = oldTag.getReference();
                             oldTag.update(newTag);
+                            if (!Objects.equals(oldImageId, oldTag.getImageId()) || !Objects.equals(oldReference, oldTag.getReference())) {
+                                changedTags.add(oldTag);
+                            }
 
                             break;
                         }
                     }
 
                     // Tag does not already exist
-                    if (!exists) {
+                    if (!exists && populate) {
                         // this could result in the same tag being added to multiple containers with the same path, need to clone
                         Tag clonedTag = new Tag();
                         clonedTag.clone(newTag);
                         existingTags.add(clonedTag);
+                        changedTags.add(clonedTag);
                     }
 
                     fileMap.put(newTag.getName(), newTag.getSourceFiles());
                 }
 
                 boolean allAutomated = true;
+                tagDAO.createAll(existingTags);
                 for (Tag tag : existingTags) {
                     LOG.info("Updating tag {}", tag.getName());
-
-                    long id = tagDAO.create(tag);
-                    tag = tagDAO.findById(id);
                     container.addTag(tag);
 
                     if (!tag.isAutomated()) {
@@ -206,6 +281,7 @@ public final class Helper {
                 // delete container if it has no users
                 for (Tag t : toDelete) {
                     LOG.info("DELETING tag: {}", t.getName());
+                    unlinkedFiles.addAll(t.getSourceFiles());
                     t.getSourceFiles().clear();
                     // tagDAO.delete(t);
                     container.getTags().remove(t);
@@ -220,19 +296,42 @@ public final class Helper {
                 }
             }
 
-            updateFiles(container, client, tagDAO, fileDAO, githubToken, bitbucketToken);
+            updatedContainers.add(container);
+        }
 
-            final SourceCodeRepoInterface sourceCodeRepo = SourceCodeRepoFactory.createSourceCodeRepo(container.getGitUrl(), client,
-                    bitbucketToken == null ? null : bitbucketToken.getContent(), githubToken.getContent());
-            if (sourceCodeRepo != null) {
-                LOG.info("Parsing CWL...");
-                // find if there is a Dockstore.cwl file from the git repository
-                sourceCodeRepo.findCWL(container);
-            }
+        final List<Future<Container>> parsedContainers = new ArrayList<>();
+        for (final Container container : updatedContainers) {
+            // the managed container stays on this thread, the CWL is parsed into a detached copy
+            final Container parsed = new Container();
+            parsed.setGitUrl(container.getGitUrl());
+            parsed.setDefaultCwlPath(container.getDefaultCwlPath());
+            parsed.setDescription(container.getDescription());
+            parsed.setAuthor(container.getAuthor());
+            parsed.setValidTrigger(container.getValidTrigger());
+            parsedContainers.add(executor.submit(getGitHost(container), () -> {
+                final SourceCodeRepoInterface sourceCodeRepo = SourceCodeRepoFactory.createSourceCodeRepo(parsed.getGitUrl(), client,
+                        bitbucketToken == null ? null : bitbucketToken.getContent(), githubToken.getContent());
+                if (sourceCodeRepo != null) {
+                    LOG.info("Parsing CWL...");
+                    // find if there is a Dockstore.cwl file from the git repository
+                    sourceCodeRepo.findCWL(parsed);
+                }
+                return parsed;
+            }));
+        }
 
+        updateFiles(updatedContainers, changedTags, client, fileDAO, githubToken, bitbucketToken, executor, unlinkedFiles);
+
+        for (int i = 0; i < updatedContainers.size(); i++) {
+            final Container container = updatedContainers.get(i);
+            final Container parsed = executor.getResult(parsedContainers.get(i));
+            container.setDescription(parsed.getDescription());
+            container.setAuthor(parsed.getAuthor());
+            container.setValidTrigger(parsed.getValidTrigger());
             containerDAO.create(container);
+            progress.containerRefreshed(container);
         }
-
+        fileDAO.deleteUnused(unlinkedFiles);
     }
 
     /**
@@ -315,6 +414,7 @@ public final class Helper {
         }
 
         // delete container if it has no users
+        containerDAO.evictOnCommit(toDelete);
         for (Container c : toDelete) {
             LOG.info("{} {}", c.getPath(), c.getUsers().size());
 
@@ -331,74 +431,82 @@ public final class Helper {
     /**
      * Get the list of tags for each container from Quay.io.
      *
-     * @param client
      * @param containers
-     * @param objectMapper
-     * @param quayToken
+     * @param imageRegistries
+     *            registries to fetch tags from, created up front since they are shared by the fetching threads
      * @param mapOfBuilds
+     * @param executor
      * @return a map: key = path; value = list of tags
      */
-    @SuppressWarnings("checkstyle:parameternumber")
-    private static Map<String, List<Tag>> getTags(final HttpClient client, final List<Container> containers,
-            final ObjectMapper objectMapper, final Token quayToken, final Map<String, ArrayList<?>> mapOfBuilds) {
+    private static Map<String, List<Tag>> getTags(final List<Container> containers,
+            final Map<String, ImageRegistryInterface> imageRegistries, final Map<String, BuildIndex> mapOfBuilds,
+            final RefreshExecutor executor) {
         final Map<String, List<Tag>> tagMap = new HashMap<>();
 
-        ImageRegistryFactory factory = new ImageRegistryFactory(client, objectMapper, quayToken);
-
+        final List<Future<List<Tag>>> fetchedTags = new ArrayList<>();
         for (final Container c : containers) {
+            final ImageRegistryInterface imageRegistry = imageRegistries.get(ImageRegistryFactory.getRegistryName(c).orNull());
+            fetchedTags.add(executor.submit(ImageRegistryFactory.getRegistryHost(c), () -> getTags(c, imageRegistry, mapOfBuilds)));
+        }
 
-            final ImageRegistryInterface imageRegistry = factory.createImageRegistry(c.getRegistry());
-            final List<Tag> tags = imageRegistry.getTags(c);
-
-            if (c.getMode() == ContainerMode.AUTO_DETECT_QUAY_TAGS_AUTOMATED_BUILDS
-                    || c.getMode() == ContainerMode.AUTO_DETECT_QUAY_TAGS_WITH_MIXED) {
-                // TODO: this part isn't very good, a true implementation of Docker Hub would need to return
-                // a quay.io-like data structure, we need to replace mapOfBuilds
-                List builds = mapOfBuilds.get(c.getPath());
-
-                if (builds != null && !builds.isEmpty()) {
-                    for (Tag tag : tags) {
-                        LOG.info("TAG: {}", tag.getName());
-
-                        for (final Object build : builds) {
-                            Map<String, String> idMap = (Map<String, String>) build;
-                            String buildId = idMap.get("id");
-
-                            LOG.info("Build ID: {}", buildId);
-
-                            Map<String, ArrayList<String>> tagsMap = (Map<String, ArrayList<String>>) build;
-
-                            List<String> buildTags = tagsMap.get("tags");
-
-                            if (buildTags.contains(tag.getName())) {
-                                LOG.info("Build found with tag: {}", tag.getName());
-
-                                Map<String, Map<String, String>> triggerMetadataMap = (Map<String, Map<String, String>>) build;
+        for (int i = 0; i < containers.size(); i++) {
+            tagMap.put(containers.get(i).getPath(), executor.getResult(fetchedTags.get(i)));
+        }
 
-                                String ref = triggerMetadataMap.get("trigger_metadata").get("ref");
-                                ref = parseReference(ref);
-                                LOG.info("REFERENCE: {}", ref);
-                                tag.setReference(ref);
-                                if (ref == null) {
-                                    tag.setAutomated(false);
-                                } else {
-                                    tag.setAutomated(true);
-                                }
+        return tagMap;
+    }
 
+    /**
+     * Get the list of tags for one container and match them up with the builds that produced them.
+     *
+     * @param c
+     * @param imageRegistry
+     * @param mapOfBuilds
+     * @return list of tags
+     */
+    private static List<Tag> getTags(final Container c, final ImageRegistryInterface imageRegistry,
+            final Map<String, BuildIndex> mapOfBuilds) {
+        final List<Tag> tags = imageRegistry.getTags(c);
+
+        if (c.getMode() == ContainerMode.AUTO_DETECT_QUAY_TAGS_AUTOMATED_BUILDS
+                || c.getMode() == ContainerMode.AUTO_DETECT_QUAY_TAGS_WITH_MIXED) {
+            // a registry that builds images fills in a BuildIndex from getBuildMap, one that only hosts them leaves it empty
+            final BuildIndex builds = mapOfBuilds.get(c.getPath());
+
+            if (builds != null && (!builds.isEmpty() || builds.getSince() != null)) {
+                for (Tag tag : tags) {
+                    LOG.info("TAG: {}", tag.getName());
+
+                    final Optional<ImageBuild> build = builds.getLatest(tag.getName());
+                    if (build.isPresent()) {
+                        LOG.info("Build found with tag: {}, build ID: {}", tag.getName(), build.get().getId());
+
+                        String ref = parseReference(build.get().getReference());
+                        LOG.info("REFERENCE: {}", ref);
+                        tag.setReference(ref);
+                        if (ref == null) {
+                            tag.setAutomated(false);
+                        } else {
+                            tag.setAutomated(true);
+                        }
+                    } else if (builds.getSince() != null) {
+                        // not moved since the builds fetched, so the build found for it last time still stands
+                        for (Tag oldTag : c.getTags()) {
+                            if (oldTag.getName().equals(tag.getName())) {
+                                tag.setReference(oldTag.getReference());
+                                tag.setAutomated(oldTag.isAutomated());
                                 break;
                             }
                         }
-
-                        tag.setCwlPath(c.getDefaultCwlPath());
-                        tag.setDockerfilePath(c.getDefaultDockerfilePath());
                     }
+
+                    tag.setCwlPath(c.getDefaultCwlPath());
+                    tag.setDockerfilePath(c.getDefaultDockerfilePath());
                 }
-                // tagMap.put(c.getPath(), tags);
             }
-            tagMap.put(c.getPath(), tags);
+            // tagMap.put(c.getPath(), tags);
         }
-
-        return tagMap;
+        return tags;
     }
 
     /**
@@ -446,11 +554,28 @@ public final class Helper {
      * @param tokenDAO
      * @param tagDAO
      * @param fileDAO
+     * @param executor
+     *            runs the calls to image registries and source code repos
      * @return list of updated containers
      */
     @SuppressWarnings("checkstyle:parameternumber")
     public static List<Container> refresh(final Long userId, final HttpClient client, final ObjectMapper objectMapper,
-            final UserDAO userDAO, final ContainerDAO containerDAO, final TokenDAO tokenDAO, final TagDAO tagDAO, final FileDAO fileDAO) {
+            final UserDAO userDAO, final ContainerDAO containerDAO, final TokenDAO tokenDAO, final TagDAO tagDAO, final FileDAO fileDAO,
+            final RefreshExecutor executor) {
+        return refresh(userId, client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO, executor, RefreshProgress.NONE);
+    }
+
+    /**
+     * Same as {@link #refresh(Long, HttpClient, ObjectMapper, UserDAO, ContainerDAO, TokenDAO, TagDAO, FileDAO, RefreshExecutor)}, reporting
+     * each container as it is saved.
+     *
+     * @param progress
+     *            told how many containers there are and when each one is done
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    public static List<Container> refresh(final Long userId, final HttpClient client, final ObjectMapper objectMapper,
+            final UserDAO userDAO, final ContainerDAO containerDAO, final TokenDAO tokenDAO, final TagDAO tagDAO, final FileDAO fileDAO,
+            final RefreshExecutor executor, final RefreshProgress progress) {
         List<Container> dbContainers = new ArrayList(getContainers(userId, userDAO));// containerDAO.findByUserId(userId);
 
         // Get user's quay and git tokens
@@ -469,17 +594,29 @@ public final class Helper {
         }
 
         ImageRegistryFactory factory = new ImageRegistryFactory(client, objectMapper, quayToken);
-        final List<ImageRegistryInterface> allRegistries = factory.getAllRegistries();
+        final Map<String, ImageRegistryInterface> allRegistries = factory.getAllRegistries();
 
         List<String> namespaces = new ArrayList<>();
         // TODO: figure out better approach, for now just smash together stuff from DockerHub and quay.io
-        for (ImageRegistryInterface anInterface : allRegistries) {
+        for (ImageRegistryInterface anInterface : allRegistries.values()) {
             namespaces.addAll(anInterface.getNamespaces());
         }
 
+        // one call per namespace, all registries at once
+        final List<Future<List<Container>>> fetchedContainers = new ArrayList<>();
+        for (final ImageRegistryInterface anInterface : allRegistries.values()) {
+            final Optional<String> host = anInterface.getListingHost();
+            if (!host.isPresent()) {
+                continue;
+            }
+            for (final String namespace : namespaces) {
+                fetchedContainers.add(executor.submit(host.get(),
+                        () -> anInterface.getContainers(Collections.singletonList(namespace))));
+            }
+        }
         List<Container> apiContainers = new ArrayList<>();
-        for (ImageRegistryInterface anInterface : allRegistries) {
-            apiContainers.addAll(anInterface.getContainers(namespaces));
+        for (Future<List<Container>> fetched : fetchedContainers) {
+            apiContainers.addAll(executor.getResult(fetched));
         }
 
         // TODO: when we get proper docker hub support, get this above
@@ -489,11 +626,9 @@ public final class Helper {
         findByMode.removeIf(test -> !test.getUsers().contains(currentUser));
         apiContainers.addAll(findByMode);
 
-        // ends up with docker image path -> quay.io data structure representing builds
-        final Map<String, ArrayList<?>> mapOfBuilds = new HashMap<>();
-        for (final ImageRegistryInterface anInterface : allRegistries) {
-            mapOfBuilds.putAll(anInterface.getBuildMap(apiContainers));
-        }
+        // ends up with docker image path -> builds indexed by tag
+        copyBuildHistory(apiContainers, dbContainers);
+        final Map<String, BuildIndex> mapOfBuilds = getBuildMap(apiContainers, allRegistries, executor);
 
         // end up with key = path; value = list of tags
         // final Map<String, List<Tag>> tagMap = getTags(client, allRepos, objectMapper, quayToken, bitbucketToken, githubToken,
@@ -506,10 +641,11 @@ public final class Helper {
         userDAO.clearCache();
 
         final List<Container> newDBContainers = getContainers(userId, userDAO);
+        progress.containersFound(newDBContainers.size());
         // update information on a tag by tag level
-        final Map<String, List<Tag>> tagMap = getTags(client, newDBContainers, objectMapper, quayToken, mapOfBuilds);
+        final Map<String, List<Tag>> tagMap = getTags(newDBContainers, allRegistries, mapOfBuilds, executor);
 
-        updateTags(newDBContainers, client, containerDAO, tagDAO, fileDAO, githubToken, bitbucketToken, tagMap);
+        updateTags(newDBContainers, client, containerDAO, tagDAO, fileDAO, githubToken, bitbucketToken, tagMap, executor, progress);
         userDAO.clearCache();
         return getContainers(userId, userDAO);
     }
@@ -517,13 +653,22 @@ public final class Helper {
     @SuppressWarnings("checkstyle:parameternumber")
     public static Container refreshContainer(final long containerId, final long userId, final HttpClient client,
             final ObjectMapper objectMapper, final UserDAO userDAO, final ContainerDAO containerDAO, final TokenDAO tokenDAO,
-            final TagDAO tagDAO, final FileDAO fileDAO) {
+            final TagDAO tagDAO, final FileDAO fileDAO, final RefreshExecutor executor) {
+        return refreshContainer(containerId, userId, client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO, executor,
+                RefreshProgress.NONE);
+    }
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    public static Container refreshContainer(final long containerId, final long userId, final HttpClient client,
+            final ObjectMapper objectMapper, final UserDAO userDAO, final ContainerDAO containerDAO, final TokenDAO tokenDAO,
+            final TagDAO tagDAO, final FileDAO fileDAO, final RefreshExecutor executor, final RefreshProgress progress) {
         Container container = containerDAO.findById(containerId);
         String gitUrl = container.getGitUrl();
         Map<String, String> gitMap = SourceCodeRepoFactory.parseGitUrl(gitUrl);
 
         if (gitMap == null) {
             LOG.info("Could not parse Git URL. Unable to refresh container!");
+            progress.failed(container.getToolPath(), "could not parse Git URL");
             return container;
         }
 
@@ -553,24 +698,28 @@ public final class Helper {
         }
 
         ImageRegistryFactory factory = new ImageRegistryFactory(client, objectMapper, quayToken);
-        final ImageRegistryInterface anInterface = factory.createImageRegistry(container.getRegistry());
+        final ImageRegistryInterface anInterface = factory.createImageRegistry(container);
+        final Map<String, ImageRegistryInterface> registries = new HashMap<>();
+        registries.put(ImageRegistryFactory.getRegistryName(container).get(), anInterface);
 
         List<Container> apiContainers = new ArrayList<>();
 
         if (container.getMode() == ContainerMode.MANUAL_IMAGE_PATH) {
             apiContainers.add(container);
         } else {
-            List<String> namespaces = new ArrayList<>();
-            namespaces.add(container.getNamespace());
-
-            apiContainers.addAll(anInterface.getContainers(namespaces));
+            // just this repository, listing the whole namespace costs a call per page of a large organization
+            final Optional<Container> apiContainer = anInterface.getContainer(container.getNamespace(), container.getName());
+            if (apiContainer.isPresent()) {
+                apiContainers.add(apiContainer.get());
+            }
         }
 
-        final Map<String, ArrayList<?>> mapOfBuilds = anInterface.getBuildMap(apiContainers);
-
         List<Container> dbContainers = new ArrayList<>();
         dbContainers.add(container);
 
+        copyBuildHistory(apiContainers, dbContainers);
+        final Map<String, BuildIndex> mapOfBuilds = getBuildMap(apiContainers, registries, executor);
+
         removeContainersThatCannotBeUpdated(dbContainers);
 
         apiContainers.removeIf(container1 -> !container1.getPath().equals(container.getPath()));
@@ -582,20 +731,81 @@ public final class Helper {
 
         final List<Container> newDBContainers = new ArrayList<>();
         newDBContainers.add(containerDAO.findById(container.getId()));
+        progress.containersFound(newDBContainers.size());
 
         // update information on a tag by tag level
-        final Map<String, List<Tag>> tagMap = getTags(client, newDBContainers, objectMapper, quayToken, mapOfBuilds);
+        final Map<String, List<Tag>> tagMap = getTags(newDBContainers, registries, mapOfBuilds, executor);
 
-        updateTags(newDBContainers, client, containerDAO, tagDAO, fileDAO, githubToken, bitbucketToken, tagMap);
+        updateTags(newDBContainers, client, containerDAO, tagDAO, fileDAO, githubToken, bitbucketToken, tagMap, executor, progress);
         userDAO.clearCache();
 
         return containerDAO.findById(container.getId());
     }
 
+    /**
+     * Registries only read the builds that are newer than what an earlier refresh matched to tags. Copy what the database knows
+     * about that onto the containers just fetched from the registries.
+     *
+     * @param apiContainers
+     * @param dbContainers
+     */
+    private static void copyBuildHistory(final List<Container> apiContainers, final List<Container> dbContainers) {
+        for (Container apiContainer : apiContainers) {
+            for (Container dbContainer : dbContainers) {
+                // the tags are needed to carry their builds over, see getTags
+                if (apiContainer != dbContainer && !dbContainer.getTags().isEmpty() && apiContainer.getRegistry() == dbContainer.getRegistry()
+                        && Objects.equals(apiContainer.getNamespace(), dbContainer.getNamespace())
+                        && Objects.equals(apiContainer.getName(), dbContainer.getName())) {
+                    apiContainer.setLastBuild(dbContainer.getLastBuild());
+                    apiContainer.setGitUrl(dbContainer.getGitUrl());
+                    apiContainer.setBuildsCheckedUntil(dbContainer.getBuildsCheckedUntil());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get builds for each container, one call per container.
+     *
+     * @param containers
+     * @param registries
+     * @param executor
+     * @return map of docker image path -> builds indexed by tag
+     */
+    private static Map<String, BuildIndex> getBuildMap(final List<Container> containers,
+            final Map<String, ImageRegistryInterface> registries, final RefreshExecutor executor) {
+        final List<Future<Map<String, BuildIndex>>> fetchedBuilds = new ArrayList<>();
+        for (final Container container : containers) {
+            final ImageRegistryInterface anInterface = registries.get(ImageRegistryFactory.getRegistryName(container).orNull());
+            if (anInterface != null) {
+                fetchedBuilds.add(executor.submit(ImageRegistryFactory.getRegistryHost(container),
+                        () -> anInterface.getBuildMap(Collections.singletonList(container))));
+            }
+        }
+
+        final Map<String, BuildIndex> mapOfBuilds = new HashMap<>();
+        for (Future<Map<String, BuildIndex>> fetched : fetchedBuilds) {
+            mapOfBuilds.putAll(executor.getResult(fetched));
+        }
+        return mapOfBuilds;
+    }
+
+    /**
+     * @param container
+     * @return the host of the container's git repository (github.com, bitbucket.org), used to group calls against it
+     */
+    private static String getGitHost(final Container container) {
+        final String gitUrl = container.getGitUrl();
+        if (gitUrl.isEmpty()) {
+            return "";
+        }
+        final Map<String, String> gitMap = SourceCodeRepoFactory.parseGitUrl(gitUrl);
+        return gitMap == null ? "" : gitMap.get("Source");
+    }
+
     private static void removeContainersThatCannotBeUpdated(List<Container> dbContainers) {
-        // TODO: for now, with no info coming back from Docker Hub, just skip them always
-        dbContainers.removeIf(container1 -> container1.getRegistry() == Registry.DOCKER_HUB);
-        // also skip containers on quay.io but in manual mode
+        // skip containers in manual mode, whatever their registry, their details are entered by hand and only their tags are refreshed
         dbContainers.removeIf(container1 -> container1.getMode() == ContainerMode.MANUAL_IMAGE_PATH);
     }
 
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+
+import org.apache.http.HttpStatus;
+import org.glassfish.jersey.server.ParamException;
+
+/**
+ * Answers query parameters that are not of their declared type, like a cursor that is not a number, with a 400 rather than the 404 JAX-RS
+ * sends by default.
+ */
+public class QueryParamExceptionMapper implements ExceptionMapper<ParamException.QueryParamException> {
+
+    @Override
+    public Response toResponse(ParamException.QueryParamException exception) {
+        return Response.status(HttpStatus.SC_BAD_REQUEST).entity(exception.getParameterName() + " is not valid.")
+                .type(MediaType.TEXT_PLAIN).build();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.constraints.Min;
+
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.util.Duration;
+
+/**
+ * Settings for how refreshes talk to image registries and source code repositories.
+ */
+public class RefreshConfiguration {
+
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    private static final int DEFAULT_JOB_THREADS = 2;
+    private static final int DEFAULT_MANIFEST_THREADS = 8;
+    private static final long DEFAULT_CONDITIONAL_CACHE_CHARACTERS = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAX_RATE_LIMIT_WAIT_SECONDS = 60;
+
+    @Min(1)
+    private int threads = DEFAULT_THREADS;
+
+    @Min(1)
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+
+    @Min(1)
+    private int jobThreads = DEFAULT_JOB_THREADS;
+
+    @Min(1)
+    private int manifestThreads = DEFAULT_MANIFEST_THREADS;
+
+    @Min(0)
+    private long conditionalCacheCharacters = DEFAULT_CONDITIONAL_CACHE_CHARACTERS;
+
+    @NotNull
+    private Duration scheduledInterval = Duration.milliseconds(0);
+
+    @NotNull
+    private Duration maxRateLimitWait = Duration.seconds(DEFAULT_MAX_RATE_LIMIT_WAIT_SECONDS);
+
+    @NotNull
+    private List<String> privateRegistries = new ArrayList<>();
+
+    @NotNull
+    private List<String> insecureRegistries = new ArrayList<>();
+
+    /**
+     * @return the number of threads shared by all refreshes for network calls
+     */
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of calls a refresh may have in flight against any one host (quay.io, github.com, etc.)
+     */
+    @JsonProperty
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    @JsonProperty
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @return the number of refresh jobs (started through /jobs) that can run at once, the rest wait in a queue
+     */
+    @JsonProperty
+    public int getJobThreads() {
+        return jobThreads;
+    }
+
+    @JsonProperty
+    public void setJobThreads(int jobThreads) {
+        this.jobThreads = jobThreads;
+    }
+
+    /**
+     * @return the number of threads shared by all refreshes for looking up the digests of tags on Docker Hub and private registries
+     */
+    @JsonProperty
+    public int getManifestThreads() {
+        return manifestThreads;
+    }
+
+    @JsonProperty
+    public void setManifestThreads(int manifestThreads) {
+        this.manifestThreads = manifestThreads;
+    }
+
+    /**
+     * @return the most characters of GitHub, Quay and Bitbucket responses kept to make the next GET for them conditional, 0 to keep none
+     */
+    @JsonProperty
+    public long getConditionalCacheCharacters() {
+        return conditionalCacheCharacters;
+    }
+
+    @JsonProperty
+    public void setConditionalCacheCharacters(long conditionalCacheCharacters) {
+        this.conditionalCacheCharacters = conditionalCacheCharacters;
+    }
+
+    /**
+     * @return how often each registered container is refreshed in the background, 0 to only refresh when asked
+     */
+    @JsonProperty
+    public Duration getScheduledInterval() {
+        return scheduledInterval;
+    }
+
+    @JsonProperty
+    public void setScheduledInterval(Duration scheduledInterval) {
+        this.scheduledInterval = scheduledInterval;
+    }
+
+    /**
+     * @return the longest a call waits for its turn under the rate limit of GitHub, Quay or Bitbucket before it fails with a 503 instead
+     */
+    @JsonProperty
+    public Duration getMaxRateLimitWait() {
+        return maxRateLimitWait;
+    }
+
+    @JsonProperty
+    public void setMaxRateLimitWait(Duration maxRateLimitWait) {
+        this.maxRateLimitWait = maxRateLimitWait;
+    }
+
+    /**
+     * @return the private registries (host or host:port) that containers may be registered on, none to turn private registries off
+     */
+    @JsonProperty
+    public List<String> getPrivateRegistries() {
+        return privateRegistries;
+    }
+
+    @JsonProperty
+    public void setPrivateRegistries(List<String> privateRegistries) {
+        this.privateRegistries = privateRegistries;
+    }
+
+    /**
+     * @return private registries (host or host:port) that are reached over http instead of https, such as a registry:2 on the local
+     *         network. They also need to be listed as private registries.
+     */
+    @JsonProperty
+    public List<String> getInsecureRegistries() {
+        return insecureRegistries;
+    }
+
+    @JsonProperty
+    public void setInsecureRegistries(List<String> insecureRegistries) {
+        this.insecureRegistries = insecureRegistries;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice;
+
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings for the cache of serialized responses to public requests.
+ */
+public class ResponseCacheConfiguration {
+
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    @Min(0)
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private boolean gzip;
+
+    /**
+     * @return the most bytes of serialized responses to keep, 0 to turn the cache off
+     */
+    @JsonProperty
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @JsonProperty
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return true to also keep a gzipped copy of each response, for clients that accept it
+     */
+    @JsonProperty
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    @JsonProperty
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+}
@@ -40,7 +40,7 @@ public class SimpleAuthenticator implements Authenticator<String, Token> {
 
     @Override
     public Optional<Token> authenticate(String credentials) throws AuthenticationException {
-        LOG.info("SimpleAuthenticator called with {}", credentials);
+        LOG.debug("Authenticating token");
         final Token token = dao.findByContent(credentials);
         if (token != null) {
             return Optional.of(token);
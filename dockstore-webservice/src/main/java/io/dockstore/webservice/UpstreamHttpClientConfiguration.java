@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.validation.constraints.NotNull;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dropwizard.client.HttpClientConfiguration;
+import io.dropwizard.util.Duration;
+
+/**
+ * Settings for the client used to call image registries and source code repositories. Extends the stock Dropwizard
+ * settings with a connection pool sized for each upstream host and a backoff between retries.
+ */
+public class UpstreamHttpClientConfiguration extends HttpClientConfiguration {
+
+    private static final int DEFAULT_HOST_CONNECTIONS = 8;
+    private static final int DEFAULT_RETRIES = 3;
+    private static final long DEFAULT_KEEP_ALIVE_SECONDS = 30;
+    private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 250;
+
+    @NotNull
+    private Map<String, Integer> hosts = new LinkedHashMap<>();
+
+    @NotNull
+    private Duration retryBackoff = Duration.milliseconds(DEFAULT_RETRY_BACKOFF_MILLIS);
+
+    public UpstreamHttpClientConfiguration() {
+        setKeepAlive(Duration.seconds(DEFAULT_KEEP_ALIVE_SECONDS));
+        setRetries(DEFAULT_RETRIES);
+        hosts.put("quay.io", DEFAULT_HOST_CONNECTIONS);
+        hosts.put("api.github.com", DEFAULT_HOST_CONNECTIONS);
+        hosts.put("github.com", DEFAULT_HOST_CONNECTIONS);
+        hosts.put("bitbucket.org", DEFAULT_HOST_CONNECTIONS);
+        hosts.put("registry-1.docker.io", DEFAULT_HOST_CONNECTIONS);
+    }
+
+    /**
+     * @return the most connections kept open to each named https host, other hosts share maxConnectionsPerRoute
+     */
+    @JsonProperty
+    public Map<String, Integer> getHosts() {
+        return hosts;
+    }
+
+    @JsonProperty
+    public void setHosts(Map<String, Integer> hosts) {
+        this.hosts = hosts;
+    }
+
+    /**
+     * @return the wait before the first retry of an idempotent request, doubled for each retry after that
+     */
+    @JsonProperty
+    public Duration getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    @JsonProperty
+    public void setRetryBackoff(Duration retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings for the webhooks that refresh containers when Quay.io, GitHub or Bitbucket report a push.
+ */
+public class WebhookConfiguration {
+
+    private boolean enabled;
+
+    /**
+     * @return true to accept webhooks, each hook carrying or signed with the token of the container it is about
+     */
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
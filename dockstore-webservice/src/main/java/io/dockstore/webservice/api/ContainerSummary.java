@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.api;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.Registry;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * The few fields of a container that listings need. Built straight from a query (see the summary queries on {@link Container}), so no tags,
+ * labels or users are loaded. Does not need to be stored in the database.
+ */
+@ApiModel(value = "ContainerSummary", description = "A container without its tags, labels and users, for listings")
+public class ContainerSummary {
+    @ApiModelProperty("Implementation specific ID for the container in this web service")
+    private final long id;
+    @ApiModelProperty("This is a generated full docker path including registry and namespace, used for docker pull commands")
+    private final String path;
+    @ApiModelProperty("This is the tool name of the container, when not-present this will function just like 0.1 dockstore")
+    private final String toolname;
+    @ApiModelProperty("This is a human-readable description of this container and what it is trying to accomplish")
+    private final String description;
+    @ApiModelProperty("This is the name of the author stated in the Dockstore.cwl")
+    private final String author;
+    @ApiModelProperty("This is a specific docker provider like quay.io or dockerhub or n/a?")
+    private final Registry registry;
+    @ApiModelProperty("Implementation specific timestamp for last updated on webservice")
+    private final Date lastUpdated;
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    public ContainerSummary(long id, Registry registry, String namespace, String name, String path, String toolname, String description,
+            String author, Date lastUpdated) {
+        this.id = id;
+        this.registry = registry;
+        this.path = path == null ? Container.buildPath(registry, namespace, name) : path;
+        this.toolname = toolname;
+        this.description = description;
+        this.author = author;
+        this.lastUpdated = lastUpdated;
+    }
+
+    @JsonProperty
+    public long getId() {
+        return id;
+    }
+
+    @JsonProperty
+    public String getPath() {
+        return path;
+    }
+
+    @JsonProperty
+    public String getToolname() {
+        return toolname;
+    }
+
+    @JsonProperty
+    public String getDescription() {
+        return description;
+    }
+
+    @JsonProperty
+    public String getAuthor() {
+        return author;
+    }
+
+    @JsonProperty
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    @JsonProperty
+    public Date getLastUpdated() {
+        return lastUpdated;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.api;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.helpers.RefreshProgress;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+/**
+ * A refresh running in the background. Does not need to be stored in the database, clients poll /jobs/{jobId} for it.
+ */
+@ApiModel(value = "RefreshJob", description = "A refresh running in the background")
+public class RefreshJob implements RefreshProgress {
+
+    /**
+     * What is being refreshed
+     */
+    public enum Type {
+        USER, CONTAINER, ALL
+    }
+
+    /**
+     * Where the job is in its life
+     */
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    @ApiModelProperty("Implementation specific ID for the job in this web service")
+    private final long id;
+    @ApiModelProperty("What is being refreshed")
+    private final Type type;
+    @ApiModelProperty("ID of the user or container being refreshed, empty when refreshing everything")
+    private final Long targetId;
+    @ApiModelProperty("ID of the user who asked for the refresh")
+    private final long userId;
+    private final Date submitted = new Date();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Date started;
+    private volatile Date finished;
+    private final AtomicInteger containersTotal = new AtomicInteger();
+    private final AtomicInteger containersDone = new AtomicInteger();
+    private final List<String> failures = new ArrayList<>();
+    private volatile Long retryAfterSeconds;
+
+    public RefreshJob(long id, Type type, Long targetId, long userId) {
+        this.id = id;
+        this.type = type;
+        this.targetId = targetId;
+        this.userId = userId;
+    }
+
+    @JsonProperty
+    public long getId() {
+        return id;
+    }
+
+    @JsonProperty
+    public Type getType() {
+        return type;
+    }
+
+    @JsonProperty
+    public Long getTargetId() {
+        return targetId;
+    }
+
+    @JsonProperty
+    public long getUserId() {
+        return userId;
+    }
+
+    @JsonProperty
+    public Status getStatus() {
+        return status;
+    }
+
+    @JsonProperty
+    public Date getSubmitted() {
+        return submitted;
+    }
+
+    @JsonProperty
+    public Date getStarted() {
+        return started;
+    }
+
+    @JsonProperty
+    public Date getFinished() {
+        return finished;
+    }
+
+    @JsonProperty
+    @ApiModelProperty("Number of containers found so far")
+    public int getContainersTotal() {
+        return containersTotal.get();
+    }
+
+    @JsonProperty
+    @ApiModelProperty("Number of containers whose tags and files have been saved")
+    public int getContainersDone() {
+        return containersDone.get();
+    }
+
+    @JsonProperty
+    @ApiModelProperty("Containers or users that could not be refreshed, and why")
+    public List<String> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    @JsonProperty
+    @ApiModelProperty("Seconds until the rate limit that stopped the job allows calls again, empty if no rate limit did")
+    public Long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return true once the job has either succeeded or failed
+     */
+    public boolean hasFinished() {
+        return finished != null;
+    }
+
+    public void start() {
+        started = new Date();
+        status = Status.RUNNING;
+    }
+
+    /**
+     * @param seconds
+     *            how long the rate limit that stopped the job said to wait
+     */
+    public void rateLimited(long seconds) {
+        retryAfterSeconds = seconds;
+    }
+
+    public void finish(Status finalStatus) {
+        status = finalStatus;
+        finished = new Date();
+    }
+
+    @Override
+    public void containersFound(int count) {
+        containersTotal.addAndGet(count);
+    }
+
+    @Override
+    public void containerRefreshed(Container container) {
+        containersDone.incrementAndGet();
+    }
+
+    @Override
+    public void failed(String item, String reason) {
+        synchronized (failures) {
+            failures.add(item + ": " + reason);
+        }
+    }
+}
@@ -38,9 +38,14 @@ import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.swagger.annotations.ApiModel;
@@ -49,15 +54,16 @@ import io.swagger.annotations.ApiModelProperty;
 /**
  * This describes one entry in the dockstore.
  *
- * Logically, this currently means one tuple of registry (either quay or docker hub), organization, image name, and toolname which can be
+ * Logically, this currently means one tuple of registry (quay, docker hub or a private registry), organization, image name, and toolname which can be
  * associated with CWL and Dockerfile documents
  *
  * @author xliu
  * @author dyuen
  */
-@ApiModel(value = "Container", description = "This describes one entry in the dockstore. Logically, this currently means one tuple of registry (either quay or docker hub), organization, image name, and toolname which can be\n"
+@ApiModel(value = "Container", description = "This describes one entry in the dockstore. Logically, this currently means one tuple of registry (quay, docker hub or a private registry), organization, image name, and toolname which can be\n"
         + " * associated with CWL and Dockerfile documents")
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Table(name = "container", uniqueConstraints = @UniqueConstraint(columnNames = { "registry", "namespace", "name", "toolname" }))
 @NamedQueries({
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findByNameAndNamespaceAndRegistry", query = "SELECT c FROM Container c WHERE c.name = :name AND c.namespace = :namespace AND c.registry = :registry"),
@@ -67,13 +73,22 @@ import io.swagger.annotations.ApiModelProperty;
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findByPath", query = "SELECT c FROM Container c WHERE c.path = :path"),
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findByToolPath", query = "SELECT c FROM Container c WHERE c.path = :path AND c.toolname = :toolname"),
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findRegisteredByToolPath", query = "SELECT c FROM Container c WHERE c.path = :path AND c.toolname = :toolname AND c.isRegistered = true"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findByGitUrl", query = "SELECT c FROM Container c WHERE c.gitUrl = :gitUrl"),
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findByMode", query = "SELECT c FROM Container c WHERE c.mode = :mode"),
         @NamedQuery(name = "io.dockstore.webservice.core.Container.findRegisteredByPath", query = "SELECT c FROM Container c WHERE c.path = :path AND c.isRegistered = true"),
-        @NamedQuery(name = "io.dockstore.webservice.core.Container.searchPattern", query = "SELECT c FROM Container c WHERE ((c.path LIKE :pattern) OR (c.registry LIKE :pattern) OR (c.description LIKE :pattern)) AND c.isRegistered = true") })
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findAllAfter", query = "SELECT c FROM Container c WHERE c.id > :cursor ORDER BY c.id"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findAllRegisteredAfter", query = "SELECT c FROM Container c WHERE c.isRegistered = true AND c.id > :cursor ORDER BY c.id"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findByUserIdAfter", query = "SELECT c FROM Container c JOIN c.users u WHERE u.id = :userId AND c.id > :cursor ORDER BY c.id"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findRegisteredSummaries", query = "SELECT NEW io.dockstore.webservice.api.ContainerSummary(c.id, c.registry, c.namespace, c.name, c.path, c.toolname, c.description, c.author, c.lastUpdated) FROM Container c WHERE c.isRegistered = true AND c.id > :cursor ORDER BY c.id"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findStaleRegistered", query = "SELECT c.id, MIN(u.id) FROM Container c JOIN c.users u WHERE c.isRegistered = true AND (c.lastUpdated IS NULL OR c.lastUpdated < :before) GROUP BY c.id, c.lastUpdated ORDER BY c.lastUpdated NULLS FIRST"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findByIds", query = "SELECT c FROM Container c WHERE c.id IN (:ids)"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findSummariesByIds", query = "SELECT NEW io.dockstore.webservice.api.ContainerSummary(c.id, c.registry, c.namespace, c.name, c.path, c.toolname, c.description, c.author, c.lastUpdated) FROM Container c WHERE c.id IN (:ids)"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Container.findSummariesByUserId", query = "SELECT NEW io.dockstore.webservice.api.ContainerSummary(c.id, c.registry, c.namespace, c.name, c.path, c.toolname, c.description, c.author, c.lastUpdated) FROM Container c JOIN c.users u WHERE u.id = :userId AND c.id > :cursor ORDER BY c.id") })
 // @JsonIdentityInfo(generator = ObjectIdGenerators.IntSequenceGenerator.class, property = "@id")
 public class Container {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "container_id_seq")
+    @SequenceGenerator(name = "container_id_seq", sequenceName = "container_id_seq", allocationSize = Sequences.ALLOCATION_SIZE)
     @ApiModelProperty("Implementation specific ID for the container in this web service")
     private long id;
 
@@ -142,6 +157,13 @@ public class Container {
     @Column
     @ApiModelProperty("Implementation specific timestamp for last built")
     private Date lastBuild;
+    // builds and tag moves up to this time have been matched to tags, later refreshes only ask the registry for newer builds
+    @Column
+    @ApiModelProperty(hidden = true)
+    private Date buildsCheckedUntil;
+    @Column
+    @ApiModelProperty(hidden = true)
+    private String webhookToken;
     @Column
     @ApiModelProperty(value = "This is a link to the associated repo with a descriptor, required GA4GH", required = true)
     private String gitUrl;
@@ -156,12 +178,14 @@ public class Container {
     @JoinTable(name = "containertag", joinColumns = @JoinColumn(name = "containerid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "tagid", referencedColumnName = "id"))
     @ApiModelProperty("Implementation specific tracking of valid build tags for the docker container")
     @OrderBy("id")
+    @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
     private final SortedSet<Tag> tags;
 
     @ManyToMany(fetch = FetchType.EAGER)
     @JoinTable(name = "containerlabel", joinColumns = @JoinColumn(name = "containerid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "labelid", referencedColumnName = "id"))
     @ApiModelProperty("Labels (i.e. meta tags) for describing the purpose and contents of containers")
     @OrderBy("id")
+    @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
     private SortedSet<Label> labels;
 
     public Container() {
@@ -189,6 +213,7 @@ public class Container {
         isStarred = container.getIsStarred();
         lastModified = container.getLastModified();
         lastBuild = container.getLastBuild();
+        buildsCheckedUntil = container.getBuildsCheckedUntil();
         validTrigger = container.getValidTrigger();
         author = container.getAuthor();
 
@@ -219,20 +244,31 @@ public class Container {
     public String getPath() {
         String repositoryPath;
         if (path == null) {
-            StringBuilder builder = new StringBuilder();
-            if (registry == Registry.QUAY_IO) {
-                builder.append("quay.io/");
-            } else {
-                builder.append("registry.hub.docker.com/");
-            }
-            builder.append(namespace).append('/').append(name);
-            repositoryPath = builder.toString();
+            repositoryPath = buildPath(registry, namespace, name);
         } else {
             repositoryPath = path;
         }
         return repositoryPath;
     }
 
+    /**
+     * @param registry
+     * @param namespace
+     * @param name
+     * @return the full docker path of an image, for containers that do not have one stored
+     */
+    public static String buildPath(Registry registry, String namespace, String name) {
+        StringBuilder builder = new StringBuilder();
+        if (registry == Registry.QUAY_IO) {
+            builder.append("quay.io/");
+        } else if (registry != Registry.PRIVATE_REGISTRY) {
+            builder.append("registry.hub.docker.com/");
+        }
+        // the host of a private registry is only known from the path stored with the container
+        builder.append(namespace).append('/').append(name);
+        return builder.toString();
+    }
+
     @JsonProperty
     public boolean getIsStarred() {
         return isStarred;
@@ -280,6 +316,23 @@ public class Container {
         return lastBuild;
     }
 
+    /**
+     * @return the time up to which the registry's builds have been matched to this container's tags, null if they never have been
+     */
+    @JsonIgnore
+    public Date getBuildsCheckedUntil() {
+        return buildsCheckedUntil;
+    }
+
+    /**
+     * @return the token that webhooks about this container carry (and that GitHub signs them with), null until the container is first
+     *         published or its webhooks are asked for
+     */
+    @JsonIgnore
+    public String getWebhookToken() {
+        return webhookToken;
+    }
+
     @JsonProperty
     public boolean getValidTrigger() {
         return validTrigger;
@@ -382,6 +435,14 @@ public class Container {
         this.lastBuild = lastBuild;
     }
 
+    public void setBuildsCheckedUntil(Date buildsCheckedUntil) {
+        this.buildsCheckedUntil = buildsCheckedUntil;
+    }
+
+    public void setWebhookToken(String webhookToken) {
+        this.webhookToken = webhookToken;
+    }
+
     public void setValidTrigger(boolean validTrigger) {
         this.validTrigger = validTrigger;
     }
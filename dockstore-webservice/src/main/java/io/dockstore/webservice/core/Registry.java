@@ -10,10 +10,11 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @ApiModel(description = "This enumerates the types of docker registry that we can associate an entry with. ")
 public enum Registry {
-    QUAY_IO("quay.io"), DOCKER_HUB("registry.hub.docker.com");
+    QUAY_IO("quay.io"), DOCKER_HUB("registry.hub.docker.com"), PRIVATE_REGISTRY("private registry");
 
     /**
-     * this name is what is actually used in commands like docker pull
+     * this name is what is actually used in commands like docker pull, for a private registry the host is part of each container's path
+     * instead
      */
     @ApiModelProperty(value = "A friendly name which can be used when web browsing", required = true)
     private final String friendlyName;
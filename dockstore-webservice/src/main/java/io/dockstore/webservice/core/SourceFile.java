@@ -16,6 +16,8 @@
  */
 package io.dockstore.webservice.core;
 
+import java.nio.charset.StandardCharsets;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -23,26 +25,44 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.google.common.hash.Hashing;
 
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
 
 /**
  * This describes a cached copy of a remotely accessible file. Implementation specific.
+ *
+ * Files are content-addressed: each distinct content (per file type) is stored once, found by its SHA-256, and shared by every tag that
+ * has it.
  * 
  * @author xliu
  */
 @ApiModel("SourceFile")
 @Entity
-@Table(name = "sourcefile")
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+@Table(name = "sourcefile", uniqueConstraints = @UniqueConstraint(columnNames = { "type", "sha256" }))
+@NamedQueries({
+        @NamedQuery(name = "io.dockstore.webservice.core.SourceFile.findByChecksums", query = "SELECT f FROM SourceFile f WHERE f.sha256 IN (:checksums)") })
 public class SourceFile {
+    private static final int SHA256_HEX_LENGTH = 64;
+
     public enum FileType {
         DOCKSTORE_CWL, DOCKERFILE
     }
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sourcefile_id_seq")
+    @SequenceGenerator(name = "sourcefile_id_seq", sequenceName = "sourcefile_id_seq", allocationSize = Sequences.ALLOCATION_SIZE)
     @ApiModelProperty("Implementation specific ID for the source file in this web service")
     private long id;
 
@@ -54,8 +74,12 @@ public class SourceFile {
     @ApiModelProperty("Cache for the contents of the target file")
     private String content;
 
+    @Column(length = SHA256_HEX_LENGTH)
+    @ApiModelProperty("SHA-256 of the content, in hex")
+    private String sha256;
+
     public void update(SourceFile file) {
-        content = file.content;
+        setContent(file.content);
     }
 
     public long getId() {
@@ -80,5 +104,10 @@ public class SourceFile {
 
     public void setContent(String content) {
         this.content = content;
+        this.sha256 = content == null ? null : Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
+    }
+
+    public String getSha256() {
+        return sha256;
     }
 }
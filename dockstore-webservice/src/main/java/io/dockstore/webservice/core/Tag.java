@@ -18,9 +18,9 @@ package io.dockstore.webservice.core;
 
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
-import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -29,9 +29,13 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
-import javax.persistence.OneToMany;
+import javax.persistence.ManyToMany;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.swagger.annotations.ApiModel;
@@ -46,10 +50,12 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @ApiModel(value = "Tag", description = "This describes one tag associated with a container.")
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 @Table(name = "tag")
 public class Tag implements Comparable<Tag> {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tag_id_seq")
+    @SequenceGenerator(name = "tag_id_seq", sequenceName = "tag_id_seq", allocationSize = Sequences.ALLOCATION_SIZE)
     @ApiModelProperty("Implementation specific ID for the tag in this web service")
     private long id;
 
@@ -85,9 +91,11 @@ public class Tag implements Comparable<Tag> {
     @ApiModelProperty("Path for the CWL document")
     private String cwlPath = "/Dockstore.cwl";
 
-    @OneToMany(fetch = FetchType.LAZY, orphanRemoval = true, cascade = CascadeType.ALL)
+    // files are shared between tags with the same content, see SourceFile
+    @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(name = "tagsourcefile", joinColumns = @JoinColumn(name = "tagid", referencedColumnName = "id"), inverseJoinColumns = @JoinColumn(name = "sourcefileid", referencedColumnName = "id"))
     @ApiModelProperty("Cached files for each tag. Includes Dockerfile and Dockstore.cwl")
+    @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
     private final Set<SourceFile> sourceFiles;
 
     public Tag() {
@@ -106,7 +114,19 @@ public class Tag implements Comparable<Tag> {
     @ApiModelProperty("Implementation specific, indicates whether this is an automated build on quay.io")
     private boolean automated;
 
+    /**
+     * Apply a user's edits. If the edit moves the tag to another reference, image or file path the cached files no longer apply and are
+     * dropped, so that the next refresh loads them again.
+     *
+     * @param tag
+     */
     public void updateByUser(final Tag tag) {
+        if (!Objects.equals(reference, tag.reference) || !Objects.equals(imageId, tag.imageId) || !Objects.equals(cwlPath, tag.cwlPath)
+                || !Objects.equals(dockerfilePath, tag.dockerfilePath)) {
+            sourceFiles.clear();
+            valid = false;
+        }
+
         reference = tag.reference;
         // this.setName(tag.getName());
         imageId = tag.imageId;
@@ -115,6 +135,12 @@ public class Tag implements Comparable<Tag> {
         dockerfilePath = tag.dockerfilePath;
     }
 
+    /**
+     * Apply what a registry reports about the tag. Registries that do not report the date or size (Docker Hub, private registries) leave
+     * what is there.
+     *
+     * @param tag
+     */
     public void update(Tag tag) {
         // If the tag has an automated build, the reference will be overwritten (whether or not the user has edited it).
         if (tag.automated) {
@@ -124,8 +150,12 @@ public class Tag implements Comparable<Tag> {
         name = tag.name;
         automated = tag.automated;
         imageId = tag.imageId;
-        lastModified = tag.lastModified;
-        size = tag.size;
+        if (tag.lastModified != null) {
+            lastModified = tag.lastModified;
+        }
+        if (tag.size > 0) {
+            size = tag.size;
+        }
     }
 
     public void clone(Tag tag) {
@@ -16,6 +16,7 @@
  */
 package io.dockstore.webservice.core;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 import javax.persistence.Column;
@@ -23,11 +24,14 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.Hashing;
 
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
@@ -39,10 +43,11 @@ import io.swagger.annotations.ApiModelProperty;
  */
 @ApiModel(value = "Token", description = "Access tokens for this web service and integrated services like quay.io and github")
 @Entity
-@Table(name = "token")
+@Table(name = "token", indexes = @Index(name = "token_contenthash_idx", columnList = "contentHash"))
 @NamedQueries({
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findAll", query = "SELECT t FROM Token t"),
-        @NamedQuery(name = "io.dockstore.webservice.core.Token.findByContent", query = "SELECT t FROM Token t WHERE t.content = :content"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Token.findByContentHash", query = "SELECT t FROM Token t WHERE t.contentHash = :contentHash ORDER BY t.id"),
+        @NamedQuery(name = "io.dockstore.webservice.core.Token.findUnhashed", query = "SELECT t FROM Token t WHERE t.contentHash IS NULL"),
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findBySource", query = "SELECT t FROM Token t WHERE t.tokenSource = :source"),
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findByUserId", query = "SELECT t FROM Token t WHERE t.userId = :userId"),
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findDockstoreByUserId", query = "SELECT t FROM Token t WHERE t.userId = :userId AND t.tokenSource = 'dockstore'"),
@@ -50,6 +55,7 @@ import io.swagger.annotations.ApiModelProperty;
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findQuayByUserId", query = "SELECT t FROM Token t WHERE t.userId = :userId AND t.tokenSource = 'quay.io'"),
         @NamedQuery(name = "io.dockstore.webservice.core.Token.findBitbucketByUserId", query = "SELECT t FROM Token t WHERE t.userId = :userId AND t.tokenSource = 'bitbucket.org'") })
 public class Token {
+    private static final int SHA256_HEX_LENGTH = 64;
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -61,6 +67,11 @@ public class Token {
     @Column(nullable = false)
     @ApiModelProperty("Contents of the access token")
     private String content;
+    // tokens are looked up by the hash of their content, which is indexed; upstream services may hand out the same token twice, so it
+    // is not unique
+    @Column(length = SHA256_HEX_LENGTH)
+    @ApiModelProperty(hidden = true)
+    private String contentHash;
     @Column(nullable = false)
     @ApiModelProperty("When an integrated service is not aware of the username, we store it")
     private String username;
@@ -79,7 +90,7 @@ public class Token {
         this.id = id;
         this.userId = userId;
         this.tokenSource = tokenSource;
-        this.content = content;
+        setContent(content);
     }
 
     @JsonProperty
@@ -126,6 +137,24 @@ public class Token {
      */
     public void setContent(String content) {
         this.content = content;
+        this.contentHash = hash(content);
+    }
+
+    /**
+     * @return the sha-256 of the content, in hex
+     */
+    @JsonIgnore
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param content
+     *            token content
+     * @return what the content hash of a token with this content would be
+     */
+    public static String hash(String content) {
+        return content == null ? null : Hashing.sha256().hashString(content, StandardCharsets.UTF_8).toString();
     }
 
     /**
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+
+/**
+ * The builds of one image, indexed by the tags they pushed. Only the most recent build of each tag is kept, which is the one that
+ * says where the tag's current image came from.
+ *
+ * An index may only hold the builds since a given time, see {@link #getSince()}.
+ */
+public class BuildIndex {
+
+    private final ImageBuild latest;
+    private final Map<String, ImageBuild> latestByTag;
+    private final Date since;
+
+    /**
+     * @param builds
+     *            all builds of an image, most recent first
+     */
+    public BuildIndex(List<ImageBuild> builds) {
+        this(builds, null);
+    }
+
+    /**
+     * @param builds
+     *            builds of an image, most recent first
+     * @param since
+     *            if not null, only the builds since this time were fetched
+     */
+    public BuildIndex(List<ImageBuild> builds, Date since) {
+        this.since = since;
+        latest = builds.isEmpty() ? null : builds.get(0);
+        latestByTag = new HashMap<>();
+        for (ImageBuild build : builds) {
+            for (String tag : build.getTags()) {
+                latestByTag.putIfAbsent(tag, build);
+            }
+        }
+    }
+
+    /**
+     * @return true if the index holds no builds
+     */
+    public boolean isEmpty() {
+        return latest == null;
+    }
+
+    /**
+     * @return the most recent build of the image
+     */
+    public Optional<ImageBuild> getLatest() {
+        return Optional.fromNullable(latest);
+    }
+
+    /**
+     * @param tag
+     *            a tag name
+     * @return the most recent build that pushed the tag
+     */
+    public Optional<ImageBuild> getLatest(String tag) {
+        return Optional.fromNullable(latestByTag.get(tag));
+    }
+
+    /**
+     * @return null if the index holds the image's whole build history, otherwise the time since which it holds builds. Tags not
+     *         found in such an index have not moved since then and were matched to their builds by an earlier refresh.
+     */
+    public Date getSince() {
+        return since;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.yamlbeans.YamlException;
+import com.esotericsoftware.yamlbeans.YamlReader;
+
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.SourceFile;
+import io.dockstore.webservice.core.Tag;
+
+/**
+ * An inverted index over registered containers, held in memory, for answering searches without going to the database.
+ *
+ * The path, namespace, name and toolname of a container, its author and labels, the ids of the inputs and outputs of its CWL files, its
+ * description and registry are split into lower case words. Each word has a posting list of ints, one per container that has it, holding
+ * the container's document number and how much the word counts for (more for the path than for the description). Words match as
+ * prefixes and every word searched for has to match, as with {@link io.dockstore.webservice.jdbi.ContainerSearchIndex}.
+ *
+ * Changes only reach the index once their transaction commits, see {@link #updateOnCommit(Collection)}. When off, none of the methods
+ * do anything and searches go to the database.
+ */
+public class ContainerSearchEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerSearchEngine.class);
+
+    // how much a word counts for, depending on where it was found
+    private static final int PATH_WEIGHT = 4;
+    private static final int PEOPLE_WEIGHT = 2;
+    private static final int TEXT_WEIGHT = 1;
+    // a posting is (document << WEIGHT_BITS) | weight
+    private static final int WEIGHT_BITS = 3;
+    private static final int WEIGHT_MASK = (1 << WEIGHT_BITS) - 1;
+    private static final int INITIAL_POSTINGS = 4;
+    // documents left behind by updates before the postings are rebuilt
+    private static final int MIN_DELETED_TO_COMPACT = 1000;
+
+    private final SessionFactory sessionFactory;
+    private final boolean enabled;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // guarded by lock
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<Long, Integer> documentByContainer = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    public ContainerSearchEngine(SessionFactory sessionFactory, boolean enabled) {
+        this.sessionFactory = sessionFactory;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if searches should be answered from this index
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replace everything in the index.
+     *
+     * @param registered
+     *            all registered containers
+     */
+    public void rebuild(Collection<Container> registered) {
+        if (!enabled) {
+            return;
+        }
+        final List<Document> built = new ArrayList<>();
+        for (Container container : registered) {
+            built.add(new Document(container));
+        }
+        lock.writeLock().lock();
+        try {
+            reset(built);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOG.info("Indexed {} containers for search", built.size());
+    }
+
+    /**
+     * Update the index for containers changed in the current transaction, once it commits. Containers that are not registered are taken
+     * out. What is indexed is read just before the commit, so this can be called before the last changes are made.
+     *
+     * @param containers
+     */
+    public void updateOnCommit(final Collection<Container> containers) {
+        if (!enabled || containers.isEmpty()) {
+            return;
+        }
+        final List<Container> changed = new ArrayList<>(containers);
+        sessionFactory.getCurrentSession().getTransaction().registerSynchronization(new Synchronization() {
+            private final List<Document> updates = new ArrayList<>();
+
+            @Override
+            public void beforeCompletion() {
+                for (Container container : changed) {
+                    updates.add(container.getIsRegistered() ? new Document(container) : new Document(container.getId()));
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    apply(updates);
+                }
+            }
+        });
+    }
+
+    public void updateOnCommit(Container container) {
+        updateOnCommit(Collections.singletonList(container));
+    }
+
+    /**
+     * Take containers out of the index, e.g. ones found to have been deleted.
+     *
+     * @param containerIds
+     */
+    public void remove(Collection<Long> containerIds) {
+        if (!enabled || containerIds.isEmpty()) {
+            return;
+        }
+        final List<Document> removals = new ArrayList<>();
+        for (Long id : containerIds) {
+            removals.add(new Document(id));
+        }
+        apply(removals);
+    }
+
+    /**
+     * @param text
+     *            words to look for, each matching the start of a word. With no words all indexed containers are returned, by id
+     * @param offset
+     *            number of matches to skip
+     * @param limit
+     *            maximum number of ids to return, null for no limit
+     * @return ids of the matching containers, best matches first
+     */
+    public List<Long> search(String text, long offset, Integer limit) {
+        final List<String> words = words(text);
+        final List<long[]> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (words.isEmpty()) {
+                for (int doc = deleted.nextClearBit(0); doc < documents.size(); doc = deleted.nextClearBit(doc + 1)) {
+                    matches.add(new long[] { 0, documents.get(doc).containerId });
+                }
+            } else {
+                final int[] scores = score(words);
+                for (int doc = 0; doc < scores.length; doc++) {
+                    if (scores[doc] > 0) {
+                        matches.add(new long[] { scores[doc], documents.get(doc).containerId });
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+        final int from = (int) Math.min(offset, matches.size());
+        final int to = limit == null ? matches.size() : (int) Math.min((long) from + limit, matches.size());
+        final List<Long> ids = new ArrayList<>(to - from);
+        for (long[] match : matches.subList(from, to)) {
+            ids.add(match[1]);
+        }
+        return ids;
+    }
+
+    /**
+     * @return for each document, the sum over the words of the best weight of a term starting with that word, or 0 if some word did not
+     *         match
+     */
+    private int[] score(List<String> words) {
+        final int[] total = new int[documents.size()];
+        final int[] best = new int[documents.size()];
+        boolean first = true;
+        for (String word : words) {
+            Arrays.fill(best, 0);
+            final SortedMap<String, Postings> terms = postings.subMap(word, word + Character.MAX_VALUE);
+            for (Postings list : terms.values()) {
+                for (int i = 0; i < list.size; i++) {
+                    final int doc = list.entries[i] >>> WEIGHT_BITS;
+                    best[doc] = Math.max(best[doc], list.entries[i] & WEIGHT_MASK);
+                }
+            }
+            for (int doc = 0; doc < total.length; doc++) {
+                if (best[doc] == 0 || (!first && total[doc] == 0) || deleted.get(doc)) {
+                    total[doc] = 0;
+                } else {
+                    total[doc] += best[doc];
+                }
+            }
+            first = false;
+        }
+        return total;
+    }
+
+    private void apply(List<Document> updates) {
+        lock.writeLock().lock();
+        try {
+            for (Document update : updates) {
+                final Integer previous = documentByContainer.remove(update.containerId);
+                if (previous != null) {
+                    deleted.set(previous);
+                }
+                if (!update.terms.isEmpty()) {
+                    add(update);
+                }
+            }
+            final int deletedCount = deleted.cardinality();
+            if (deletedCount >= MIN_DELETED_TO_COMPACT && deletedCount > documents.size() / 2) {
+                final List<Document> live = new ArrayList<>();
+                for (int doc = deleted.nextClearBit(0); doc < documents.size(); doc = deleted.nextClearBit(doc + 1)) {
+                    live.add(documents.get(doc));
+                }
+                reset(live);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void reset(List<Document> live) {
+        postings.clear();
+        documents.clear();
+        documentByContainer.clear();
+        deleted.clear();
+        for (Document document : live) {
+            add(document);
+        }
+    }
+
+    private void add(Document document) {
+        final int doc = documents.size();
+        documents.add(document);
+        documentByContainer.put(document.containerId, doc);
+        for (Map.Entry<String, Integer> term : document.terms.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), key -> new Postings()).add((doc << WEIGHT_BITS) | term.getValue());
+        }
+    }
+
+    static List<String> words(String text) {
+        final List<String> words = new ArrayList<>();
+        if (text != null) {
+            for (String word : text.toLowerCase(Locale.ENGLISH).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    /**
+     * A growable list of postings, in increasing document order since documents are only ever appended.
+     */
+    private static final class Postings {
+        private int[] entries = new int[INITIAL_POSTINGS];
+        private int size;
+
+        void add(int entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+    }
+
+    /**
+     * What is indexed for one container: each of its words with the highest weight it was found at. No terms means it is not indexed.
+     */
+    private static final class Document {
+        private final long containerId;
+        private final Map<String, Integer> terms = new HashMap<>();
+
+        Document(long containerId) {
+            this.containerId = containerId;
+        }
+
+        Document(Container container) {
+            this(container.getId());
+            addAll(PATH_WEIGHT, container.getPath(), container.getNamespace(), container.getName(), container.getToolname());
+            addAll(PEOPLE_WEIGHT, container.getAuthor());
+            for (Label label : container.getLabels()) {
+                addAll(PEOPLE_WEIGHT, label.getValue());
+            }
+            final Set<String> seen = new HashSet<>();
+            for (Tag tag : container.getTags()) {
+                for (SourceFile file : tag.getSourceFiles()) {
+                    if (file.getType() == SourceFile.FileType.DOCKSTORE_CWL && seen.add(file.getSha256())) {
+                        addAll(PEOPLE_WEIGHT, cwlIds(file.getContent()).toArray(new String[0]));
+                    }
+                }
+            }
+            addAll(TEXT_WEIGHT, container.getDescription(), container.getRegistry() == null ? null : container.getRegistry().toString());
+        }
+
+        private void addAll(int weight, String... texts) {
+            for (String text : texts) {
+                for (String word : words(text)) {
+                    terms.merge(word, weight, Math::max);
+                }
+            }
+        }
+
+        /**
+         * @return the ids of the inputs and outputs of a CWL tool, which may be given as a list of parameters with ids or as a map keyed
+         *         on id
+         */
+        private static List<String> cwlIds(String content) {
+            final List<String> ids = new ArrayList<>();
+            if (content == null || content.isEmpty()) {
+                return ids;
+            }
+            try {
+                final Object document = new YamlReader(content).read();
+                if (document instanceof Map) {
+                    for (String section : new String[] { "inputs", "outputs" }) {
+                        final Object parameters = ((Map) document).get(section);
+                        if (parameters instanceof Map) {
+                            for (Object id : ((Map) parameters).keySet()) {
+                                ids.add(String.valueOf(id));
+                            }
+                        } else if (parameters instanceof List) {
+                            for (Object parameter : (List) parameters) {
+                                if (parameter instanceof Map && ((Map) parameter).get("id") != null) {
+                                    ids.add(String.valueOf(((Map) parameter).get("id")));
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (YamlException ex) {
+                LOG.info("CWL file is malformed, not indexing its inputs and outputs");
+            }
+            return ids;
+        }
+    }
+}
@@ -1,46 +1,79 @@
 package io.dockstore.webservice.helpers;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.http.client.HttpClient;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+
 import io.dockstore.webservice.core.Container;
-import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.core.Token;
 
 /**
- * A no-op interface intended as a place-holder for where we will implemnt docker hub functionality when they get around to exposing and
- * implementing their API.
+ * Reads the tags of Docker Hub images through the registry v2 API, with an anonymous pull token. Docker Hub does not tell us which
+ * images a user has or how they were built, so containers are registered by hand and only their tags are refreshed.
  * 
  * @author dyuen
  */
-public class DockerHubRegistry implements ImageRegistryInterface {
+public class DockerHubRegistry extends OciRegistry {
 
-    private final HttpClient client;
+    // the host in the paths of Docker Hub containers
+    private static final String HUB_HOST = "registry.hub.docker.com";
+    // what docker itself also takes for Docker Hub
+    private static final Set<String> HUB_HOSTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(HUB_HOST, "docker.io",
+            "index.docker.io", "registry-1.docker.io")));
+    // the registry behind those hosts
+    private static final String REGISTRY_URL = "https://registry-1.docker.io";
+    // where registry-1.docker.io sends clients for pull tokens
+    private static final String AUTH_HOST = "auth.docker.io";
+    // official images, shown as _/name on Docker Hub
+    private static final String OFFICIAL_NAMESPACE = "library";
 
-    public DockerHubRegistry(HttpClient client) {
-        this.client = client;
+    public DockerHubRegistry(HttpClient client, ObjectMapper objectMapper) {
+        super(client, objectMapper);
     }
 
     @Override
-    public List<Tag> getTags(Container container) {
-        return new ArrayList<>();
+    protected Optional<String> getRegistryUrl(Container container) {
+        return Optional.of(REGISTRY_URL);
     }
 
     @Override
-    public List<String> getNamespaces() {
-        return new ArrayList<>();
+    protected boolean isTrustedRealm(URI realm, String registryUrl) {
+        return "https".equals(realm.getScheme()) && AUTH_HOST.equals(realm.getRawAuthority());
     }
 
     @Override
-    public List<Container> getContainers(List<String> namespaces) {
-        return new ArrayList<>();
+    protected String getRepository(Container container) {
+        final String namespace = container.getNamespace();
+        if (namespace == null || namespace.isEmpty() || "_".equals(namespace)) {
+            return OFFICIAL_NAMESPACE + '/' + container.getName();
+        }
+        return namespace + '/' + container.getName();
     }
 
-    @Override
-    public Map<String, ArrayList<?>> getBuildMap(List<Container> allRepos) {
-        return new HashMap<>();
+    /**
+     * Refreshes containers on Docker Hub.
+     */
+    public static class Provider implements ImageRegistryProvider {
+        @Override
+        public String getName() {
+            return HUB_HOST;
+        }
+
+        @Override
+        public boolean handles(String host) {
+            return HUB_HOSTS.contains(host);
+        }
+
+        @Override
+        public ImageRegistryInterface create(HttpClient client, ObjectMapper objectMapper, Token quayToken) {
+            return new DockerHubRegistry(client, objectMapper);
+        }
     }
 }
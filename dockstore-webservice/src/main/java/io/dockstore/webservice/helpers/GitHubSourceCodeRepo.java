@@ -1,104 +1,90 @@
 package io.dockstore.webservice.helpers;
 
-import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.List;
 
-import org.eclipse.egit.github.core.Repository;
-import org.eclipse.egit.github.core.RepositoryContents;
-import org.eclipse.egit.github.core.client.GitHubClient;
-import org.eclipse.egit.github.core.service.ContentsService;
-import org.eclipse.egit.github.core.service.RepositoryService;
+import org.apache.http.client.HttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+
 import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.resources.ResourceUtilities;
 
 /**
+ * Reads files straight from the GitHub contents API as raw text. The calls go through {@link ResourceUtilities} so repeated reads of an
+ * unchanged file are answered with a 304 from the cache.
+ *
  * @author dyuen
  */
 public class GitHubSourceCodeRepo extends SourceCodeRepoInterface {
 
     private static final Logger LOG = LoggerFactory.getLogger(GitHubSourceCodeRepo.class);
+    private static final String GITHUB_API_URL = "https://api.github.com/";
+    private static final String RAW_CONTENT = "application/vnd.github.v3.raw";
+
     private final String gitUsername;
-    private final ContentsService cService;
-    private final RepositoryService service;
+    private final String githubTokenContent;
     private final String gitRepository;
+    private final HttpClient client;
 
-    public GitHubSourceCodeRepo(String gitUsername, String githubTokenContent, String gitRepository) {
-
-        GitHubClient githubClient = new GitHubClient();
-        githubClient.setOAuth2Token(githubTokenContent);
-
-        RepositoryService service = new RepositoryService(githubClient);
-        ContentsService cService = new ContentsService(githubClient);
-
-        this.service = service;
-        this.cService = cService;
+    public GitHubSourceCodeRepo(String gitUsername, HttpClient client, String githubTokenContent, String gitRepository) {
+        this.client = client;
+        this.githubTokenContent = githubTokenContent;
         this.gitUsername = gitUsername;
         this.gitRepository = gitRepository;
     }
 
     @Override
     public FileResponse readFile(String fileName, String reference) {
-        FileResponse cwl = new FileResponse();
-        try {
-            Repository repo = service.getRepository(gitUsername, gitRepository);
-            List<RepositoryContents> contents;
-            try {
-                contents = cService.getContents(repo, fileName, reference);
-            } catch (Exception e) {
-                contents = cService.getContents(repo, fileName.toLowerCase(), reference);
-            }
-
-            if (!(contents == null || contents.isEmpty())) {
-                String encoded = contents.get(0).getContent().replace("\n", "");
-                byte[] decode = Base64.getDecoder().decode(encoded);
-                String content = new String(decode, StandardCharsets.UTF_8);
-                // builder.append(content);
-                cwl.setContent(content);
-            } else {
-                return null;
-            }
-
-        } catch (IOException e) {
-            // e.printStackTrace();
-            LOG.error(e.getMessage());
+        Optional<String> content = getContents(fileName, reference);
+        if (!content.isPresent()) {
+            content = getContents(fileName.toLowerCase(), reference);
+        }
+        if (!content.isPresent()) {
             return null;
         }
+
+        FileResponse cwl = new FileResponse();
+        cwl.setContent(content.get());
         return cwl;
     }
 
     @Override
     public Container findCWL(Container c) {
-        String fileName = c.getDefaultCwlPath();
+        Optional<String> content = getContents(c.getDefaultCwlPath(), null);
+        if (content.isPresent()) {
+            LOG.info("Github found for: {}", gitRepository);
+            c = parseCWLContent(c, content.get());
+        } else {
+            LOG.info("Repo: {} has no Dockstore.cwl", c.getGitUrl());
+        }
+        return c;
+    }
 
-        Repository repository = null;
-        try {
-            repository = service.getRepository(gitUsername, gitRepository);
-        } catch (IOException e) {
-            LOG.error("Repo: {} could not be retrieved", c.getGitUrl());
+    /**
+     * @param fileName
+     * @param reference
+     *            branch or tag, the default branch if null
+     * @return raw contents of the file, absent if it (or the repository) could not be found
+     */
+    private Optional<String> getContents(String fileName, String reference) {
+        StringBuilder url = new StringBuilder(GITHUB_API_URL).append("repos/").append(gitUsername).append('/').append(gitRepository)
+                .append("/contents");
+        if (!fileName.startsWith("/")) {
+            url.append('/');
         }
-        if (repository == null) {
-            LOG.info("Github repository not found for {}", c.getPath());
-        } else {
-            LOG.info("Github found for: {}", repository.getName());
+        url.append(fileName);
+        if (reference != null) {
             try {
-                List<RepositoryContents> contents;
-                contents = cService.getContents(repository, fileName);
-                if (!(contents == null || contents.isEmpty())) {
-                    String encoded = contents.get(0).getContent().replace("\n", "");
-                    byte[] decode = Base64.getDecoder().decode(encoded);
-                    String content = new String(decode, StandardCharsets.UTF_8);
-
-                    c = parseCWLContent(c, content);
-                }
-            } catch (IOException ex) {
-                LOG.info("Repo: {} has no Dockstore.cwl", repository.getName());
+                url.append("?ref=").append(URLEncoder.encode(reference, StandardCharsets.UTF_8.name()));
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
             }
         }
-        return c;
+        LOG.info("RESOURCE CALL: {}", url);
+        return ResourceUtilities.asString(url.toString(), githubTokenContent, RAW_CONTENT, client);
     }
-
 }
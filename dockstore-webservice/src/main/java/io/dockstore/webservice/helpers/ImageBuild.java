@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One build of an image as reported by an image registry, holding only what a refresh uses: the tags it produced and the git
+ * revision it was built from.
+ */
+public class ImageBuild {
+
+    private final String id;
+    private final Date started;
+    private final List<String> tags;
+    private final String gitUrl;
+    private final String reference;
+
+    /**
+     * @param id
+     * @param started
+     *            null if the registry did not say or the date could not be read
+     * @param tags
+     *            names of the tags this build pushed
+     * @param gitUrl
+     *            null if the build was not started by a git trigger
+     * @param reference
+     *            git ref the build was started from, null if not started by a git trigger
+     */
+    public ImageBuild(String id, Date started, List<String> tags, String gitUrl, String reference) {
+        this.id = id;
+        this.started = started;
+        this.tags = Collections.unmodifiableList(tags);
+        this.gitUrl = gitUrl;
+        this.reference = reference;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public String getGitUrl() {
+        return gitUrl;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+}
@@ -1,24 +1,34 @@
 package io.dockstore.webservice.helpers;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.ServiceLoader;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
 
 import io.dockstore.webservice.CustomWebApplicationException;
-import io.dockstore.webservice.core.Registry;
+import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.Token;
 
 /**
- * Create image registries
+ * Create image registries, with the {@link ImageRegistryProvider}s found on the classpath
  *
  * @author dyuen
  */
 public class ImageRegistryFactory {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ImageRegistryFactory.class);
+
+    // by name, in the order they were found
+    private static final Map<String, ImageRegistryProvider> PROVIDERS = loadProviders();
+
     private final HttpClient client;
     private final Token quayToken;
     private final ObjectMapper objectMapper;
@@ -29,21 +39,62 @@ public class ImageRegistryFactory {
         this.quayToken = quayToken;
     }
 
-    public List<ImageRegistryInterface> getAllRegistries() {
-        List<ImageRegistryInterface> interfaces = new ArrayList<>();
-        for (Registry r : Registry.values()) {
-            interfaces.add(createImageRegistry(r));
+    /**
+     * @return one instance of each image registry, by provider name
+     */
+    public Map<String, ImageRegistryInterface> getAllRegistries() {
+        Map<String, ImageRegistryInterface> interfaces = new LinkedHashMap<>();
+        for (Entry<String, ImageRegistryProvider> entry : PROVIDERS.entrySet()) {
+            interfaces.put(entry.getKey(), entry.getValue().create(client, objectMapper, quayToken));
         }
         return interfaces;
     }
 
-    public ImageRegistryInterface createImageRegistry(Registry registry) {
-        if (registry == Registry.QUAY_IO) {
-            return new QuayImageRegistry(client, objectMapper, quayToken);
-        } else if (registry == Registry.DOCKER_HUB) {
-            return new DockerHubRegistry(client);
-        } else {
-            throw new CustomWebApplicationException("Sorry, we do not support " + registry + ".", HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE);
+    /**
+     * @param container
+     * @return a client for the registry the container is on
+     */
+    public ImageRegistryInterface createImageRegistry(Container container) {
+        final Optional<String> name = getRegistryName(container);
+        if (!name.isPresent()) {
+            throw new CustomWebApplicationException("Sorry, we do not support " + getRegistryHost(container) + ".",
+                    HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE);
+        }
+        return PROVIDERS.get(name.get()).create(client, objectMapper, quayToken);
+    }
+
+    /**
+     * @param container
+     * @return the name of the first provider that handles the host of the container's path, absent if none does
+     */
+    public static Optional<String> getRegistryName(Container container) {
+        final String host = getRegistryHost(container);
+        for (ImageRegistryProvider provider : PROVIDERS.values()) {
+            if (provider.handles(host)) {
+                return Optional.of(provider.getName());
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @param container
+     * @return the host at the start of the container's path (quay.io, registry.hub.docker.com or a private registry's host)
+     */
+    public static String getRegistryHost(Container container) {
+        final String path = container.getPath();
+        return path.substring(0, Math.max(path.indexOf('/'), 0));
+    }
+
+    private static Map<String, ImageRegistryProvider> loadProviders() {
+        final Map<String, ImageRegistryProvider> providers = new LinkedHashMap<>();
+        for (ImageRegistryProvider provider : ServiceLoader.load(ImageRegistryProvider.class, ImageRegistryFactory.class.getClassLoader())) {
+            final ImageRegistryProvider found = providers.putIfAbsent(provider.getName(), provider);
+            if (found != null) {
+                LOG.warn("Ignoring {} for {}, {} was found first", provider.getClass().getName(), provider.getName(),
+                        found.getClass().getName());
+            }
         }
+        return providers;
     }
 }
@@ -1,9 +1,10 @@
 package io.dockstore.webservice.helpers;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.base.Optional;
+
 import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.Tag;
 
@@ -30,6 +31,12 @@ public interface ImageRegistryInterface {
      */
     List<String> getNamespaces();
 
+    /**
+     * @return the host that {@link #getNamespaces()} and {@link #getContainers(List)} call, absent if this registry cannot list
+     *         containers
+     */
+    Optional<String> getListingHost();
+
     /**
      * Get all containers from provided namespaces
      * 
@@ -38,6 +45,15 @@ public interface ImageRegistryInterface {
      */
     List<Container> getContainers(List<String> namespaces);
 
+    /**
+     * Get one container, without listing the rest of its namespace
+     *
+     * @param namespace
+     * @param name
+     * @return the container as {@link #getContainers(List)} would return it, absent if the registry does not know it
+     */
+    Optional<Container> getContainer(String namespace, String name);
+
     /**
      * A bit of a misnomer, this not only gets a map of builds but populates the container with CWL-parsed info
      *
@@ -45,7 +61,7 @@ public interface ImageRegistryInterface {
      * @param bitbucketToken
      * @param allRepos
      *            a list of images that gets modified with data from builds like data modified, size, etc.
-     * @return map of path -> list of quay.io build data structure
+     * @return map of path -> builds of that image, indexed by tag
      */
-    Map<String, ArrayList<?>> getBuildMap(List<Container> allRepos);
+    Map<String, BuildIndex> getBuildMap(List<Container> allRepos);
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import org.apache.http.client.HttpClient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.dockstore.webservice.core.Token;
+
+/**
+ * Makes an image registry available to refreshes. Providers are found with {@link java.util.ServiceLoader}; to add one, put its class
+ * name in META-INF/services/io.dockstore.webservice.helpers.ImageRegistryProvider of a jar on the classpath.
+ */
+public interface ImageRegistryProvider {
+
+    /**
+     * @return a name for the registry, unique among providers, e.g. quay.io
+     */
+    String getName();
+
+    /**
+     * @param host
+     *            the host (and port) at the start of a container's path
+     * @return true if this provider's registry clients refresh containers on that host
+     */
+    boolean handles(String host);
+
+    /**
+     * @param client
+     * @param objectMapper
+     * @param quayToken
+     *            the user's Quay.io token, null if they have none
+     * @return a registry client for one refresh
+     */
+    ImageRegistryInterface create(HttpClient client, ObjectMapper objectMapper, Token quayToken);
+}
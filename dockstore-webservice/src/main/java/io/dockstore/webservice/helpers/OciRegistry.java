@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.core.Token;
+import io.dockstore.webservice.resources.RateLimitGovernor;
+import io.dockstore.webservice.resources.ResourceUtilities;
+
+/**
+ * Reads the tags of images on any registry that speaks the Docker Registry HTTP API v2 (the OCI distribution API), such as an
+ * on-premises registry:2. The registry is the host at the start of the container's path, which has to be one of the configured private
+ * registries and must not resolve to a loopback or link-local address. Registries that want a token answer with a Bearer challenge, an
+ * anonymous pull token is then fetched from the realm it names, if that is on the registry itself or on another configured registry.
+ *
+ * Like Docker Hub, these registries do not say which images a user has or how they were built, so containers are registered by hand and
+ * only their tags are refreshed.
+ */
+public class OciRegistry implements ImageRegistryInterface {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OciRegistry.class);
+
+    private static final int TAGS_PAGE_SIZE = 100;
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+
+    private static final String DIGEST_HEADER = "Docker-Content-Digest";
+    // the digest of a multi-platform image is that of its list, single platform images answer with their manifest
+    private static final String MANIFEST_TYPES = "application/vnd.docker.distribution.manifest.list.v2+json,"
+            + "application/vnd.oci.image.index.v1+json,application/vnd.docker.distribution.manifest.v2+json,"
+            + "application/vnd.oci.image.manifest.v1+json";
+
+    private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"?next\"?");
+    private static final Pattern CHALLENGE_PARAMETER = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    /**
+     * Manifest lookups of every container being refreshed. getTags already runs on the refresh executor, handing it more work from there
+     * could leave all of its threads waiting on calls queued behind them. Until the application sets a pool they run one at a time on
+     * the refreshing thread.
+     */
+    private static volatile ExecutorService manifestLookups = MoreExecutors.newDirectExecutorService();
+
+    // the only registries containers may be on
+    private static volatile Set<String> allowedHosts = Collections.emptySet();
+    // registries reached over plain http, like the insecure-registries of the docker daemon
+    private static volatile Set<String> insecureHosts = Collections.emptySet();
+
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+
+    public OciRegistry(HttpClient client, ObjectMapper objectMapper) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param executor
+     *            runs the manifest lookups of all refreshes, shut down by whoever created it
+     */
+    public static void setManifestLookups(ExecutorService executor) {
+        manifestLookups = executor;
+    }
+
+    /**
+     * @param hosts
+     *            registries (host or host:port) that containers may be on
+     */
+    public static void setAllowedHosts(Collection<String> hosts) {
+        allowedHosts = Collections.unmodifiableSet(new HashSet<>(hosts));
+    }
+
+    /**
+     * @param hosts
+     *            registries (host or host:port) to reach over http instead of https
+     */
+    public static void setInsecureHosts(Collection<String> hosts) {
+        insecureHosts = Collections.unmodifiableSet(new HashSet<>(hosts));
+    }
+
+    /**
+     * The same test docker uses to tell a registry host from the first part of an image name.
+     *
+     * @param path
+     *            the path of an image
+     * @return the registry host (and port) it starts with, e.g. localhost, registry.example.org or registry:5000, absent if it has none
+     */
+    public static Optional<String> getHost(String path) {
+        final int slash = path.indexOf('/');
+        if (slash <= 0) {
+            return Optional.absent();
+        }
+        final String host = path.substring(0, slash);
+        return host.contains(".") || host.contains(":") || "localhost".equals(host) ? Optional.of(host) : Optional.absent();
+    }
+
+    /**
+     * @param host
+     *            host or host:port
+     * @return true if the host is one of the configured private registries and is not on a loopback or link-local address
+     */
+    public static boolean isAllowedHost(String host) {
+        return allowedHosts.contains(host) && isPublicAddress(host);
+    }
+
+    /**
+     * @param host
+     *            host or host:port
+     * @return false if the host does not resolve or any of its addresses is on this machine or on the local link, where cloud metadata
+     *         services live
+     */
+    static boolean isPublicAddress(String host) {
+        final String name;
+        try {
+            name = new URI(null, host, null, null, null).getHost();
+        } catch (URISyntaxException ex) {
+            return false;
+        }
+        if (name == null) {
+            return false;
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(name)) {
+                if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isAnyLocalAddress()
+                        || address.isMulticastAddress()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            LOG.info("Could not resolve {}: {}", name, ex.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public List<Tag> getTags(Container container) {
+        final Optional<String> registryUrl = getRegistryUrl(container);
+        if (!registryUrl.isPresent()) {
+            LOG.info("The path of {} does not start with the host of a private registry", container.getToolPath());
+            return new ArrayList<>();
+        }
+        final String repo = getRepository(container);
+        LOG.info("======================= Getting tags for: {}================================", registryUrl.get() + '/' + repo);
+
+        final Optional<TagList> tagList = getTagList(registryUrl.get(), repo);
+        if (!tagList.isPresent()) {
+            return new ArrayList<>();
+        }
+        final List<String> names = tagList.get().names;
+        final String token = tagList.get().token;
+
+        final List<Future<Optional<String>>> digests = new ArrayList<>(names.size());
+        for (final String name : names) {
+            digests.add(manifestLookups.submit(() -> getDigest(registryUrl.get(), repo, name, token)));
+        }
+
+        final List<Tag> tags = new ArrayList<>(names.size());
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                final Optional<String> digest = digests.get(i).get();
+                if (digest.isPresent()) {
+                    final Tag tag = new Tag();
+                    tag.setName(names.get(i));
+                    tag.setImageId(digest.get());
+                    tags.add(tag);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            digests.forEach(future -> future.cancel(true));
+            return new ArrayList<>();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                // e.g. turned away by the rate limit, fail the refresh rather than lose the tags
+                throw (RuntimeException) ex.getCause();
+            }
+            // a partial list would look like tags were deleted
+            LOG.info("Exception: {}", ex);
+            return new ArrayList<>();
+        }
+        return tags;
+    }
+
+    @Override
+    public List<String> getNamespaces() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public Optional<String> getListingHost() {
+        return Optional.absent();
+    }
+
+    @Override
+    public List<Container> getContainers(List<String> namespaces) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public Optional<Container> getContainer(String namespace, String name) {
+        return Optional.absent();
+    }
+
+    @Override
+    public Map<String, BuildIndex> getBuildMap(List<Container> allRepos) {
+        return new HashMap<>();
+    }
+
+    /**
+     * @param container
+     * @return scheme and host of the registry the image is on, absent if the container's path does not name an allowed one
+     */
+    protected Optional<String> getRegistryUrl(Container container) {
+        final Optional<String> host = getHost(container.getPath());
+        if (!host.isPresent() || !isAllowedHost(host.get())) {
+            return Optional.absent();
+        }
+        return Optional.of((insecureHosts.contains(host.get()) ? "http://" : "https://") + host.get());
+    }
+
+    /**
+     * @param realm
+     *            where a registry sends clients for a token
+     * @param registryUrl
+     *            scheme and host of the registry
+     * @return true if an anonymous token may be fetched from the realm: on the registry itself, or on another configured registry
+     */
+    protected boolean isTrustedRealm(URI realm, String registryUrl) {
+        final String host = realm.getRawAuthority();
+        if (host == null || !isPublicAddress(host)) {
+            return false;
+        }
+        if (isSameOrigin(realm, URI.create(registryUrl))) {
+            return true;
+        }
+        return "https".equals(realm.getScheme()) && allowedHosts.contains(host);
+    }
+
+    /**
+     * @param container
+     * @return the name of the image on its registry
+     */
+    protected String getRepository(Container container) {
+        final String path = container.getPath();
+        return path.substring(path.indexOf('/') + 1);
+    }
+
+    /**
+     * Page through /v2/name/tags/list, following the Link header the registry sends while there are more tags.
+     *
+     * @param registryUrl
+     * @param repo
+     * @return the names of all tags of the image, absent if they could not all be read
+     */
+    private Optional<TagList> getTagList(String registryUrl, String repo) {
+        final List<String> names = new ArrayList<>();
+        String token = null;
+        String url = registryUrl + "/v2/" + repo + "/tags/list?n=" + TAGS_PAGE_SIZE;
+        while (url != null) {
+            Response response = get(url, token);
+            if (response.status == HttpStatus.SC_UNAUTHORIZED && token == null && response.challenge != null) {
+                token = getToken(response.challenge, repo, registryUrl).orNull();
+                if (token != null) {
+                    response = get(url, token);
+                }
+            }
+            if (response.status != HttpStatus.SC_OK) {
+                LOG.error("getTagList(): status {} while processing request <{}>", response.status, url);
+                return Optional.absent();
+            }
+
+            try {
+                final JsonNode tags = objectMapper.readTree(response.body).get("tags");
+                if (tags != null) {
+                    for (JsonNode tag : tags) {
+                        names.add(tag.asText());
+                    }
+                }
+            } catch (IOException ex) {
+                LOG.info("Exception: {}", ex);
+                return Optional.absent();
+            }
+            url = getNextPage(url, response.link);
+        }
+        return Optional.of(new TagList(names, token));
+    }
+
+    /**
+     * @param challenge
+     *            a WWW-Authenticate header, e.g. Bearer realm="https://auth.docker.io/token",service="registry.docker.io"
+     * @param repo
+     * @param registryUrl
+     *            the registry that sent the challenge
+     * @return an anonymous pull token, absent if the registry wants something other than a bearer token or would not give one
+     */
+    private Optional<String> getToken(String challenge, String repo, String registryUrl) {
+        final Optional<String> url = getTokenUrl(challenge, repo);
+        if (!url.isPresent()) {
+            return Optional.absent();
+        }
+        if (!isTrustedRealm(URI.create(url.get()), registryUrl)) {
+            LOG.info("Not fetching a token for {} from {}", registryUrl, url.get());
+            return Optional.absent();
+        }
+        return getToken(url.get());
+    }
+
+    /**
+     * @param challenge
+     *            a WWW-Authenticate header
+     * @param repo
+     * @return where to get an anonymous pull token, absent if the registry wants something other than a bearer token
+     */
+    static Optional<String> getTokenUrl(String challenge, String repo) {
+        if (!challenge.regionMatches(true, 0, "Bearer ", 0, "Bearer ".length())) {
+            LOG.info("Unsupported authentication challenge: {}", challenge);
+            return Optional.absent();
+        }
+        final Map<String, String> parameters = new HashMap<>();
+        final Matcher matcher = CHALLENGE_PARAMETER.matcher(challenge);
+        while (matcher.find()) {
+            parameters.put(matcher.group(1), matcher.group(2));
+        }
+        if (!parameters.containsKey("realm")) {
+            return Optional.absent();
+        }
+        final URI realm;
+        try {
+            realm = new URI(parameters.get("realm"));
+        } catch (URISyntaxException ex) {
+            LOG.info("Unusable realm in authentication challenge: {}", challenge);
+            return Optional.absent();
+        }
+        if (!realm.isAbsolute() || !("https".equals(realm.getScheme()) || "http".equals(realm.getScheme()))) {
+            LOG.info("Unusable realm in authentication challenge: {}", challenge);
+            return Optional.absent();
+        }
+
+        try {
+            final String scope = parameters.containsKey("scope") ? parameters.get("scope") : "repository:" + repo + ":pull";
+            return Optional.of(realm + "?scope=" + URLEncoder.encode(scope, StandardCharsets.UTF_8.name())
+                    + (parameters.containsKey("service") ? "&service=" + URLEncoder.encode(parameters.get("service"),
+                            StandardCharsets.UTF_8.name()) : ""));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Optional<String> getToken(String url) {
+        final Optional<String> asString = ResourceUtilities.asString(url, null, client);
+        LOG.info("RESOURCE CALL: {}", url);
+        if (asString.isPresent()) {
+            try {
+                final JsonNode body = objectMapper.readTree(asString.get());
+                // the spec allows either
+                final JsonNode token = body.has("token") ? body.get("token") : body.get("access_token");
+                if (token != null) {
+                    return Optional.of(token.asText());
+                }
+            } catch (IOException ex) {
+                LOG.info("Exception: {}", ex);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * @return the digest of the tag's manifest, which identifies the image it points to
+     */
+    private Optional<String> getDigest(String registryUrl, String repo, String tag, String token) {
+        final HttpHead head = new HttpHead(registryUrl + "/v2/" + repo + "/manifests/" + tag);
+        if (token != null) {
+            head.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        head.addHeader(HttpHeaders.ACCEPT, MANIFEST_TYPES);
+        return ResourceUtilities.getResponseHeader(head, DIGEST_HEADER, client);
+    }
+
+    /**
+     * Tag lists are paged with headers, which the cached GETs of {@link ResourceUtilities} do not give back. They are kept under the rate
+     * limit of the registry all the same.
+     */
+    private Response get(String url, String token) {
+        final HttpGet get = new HttpGet(url);
+        if (token != null) {
+            get.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        LOG.info("RESOURCE CALL: {}", url);
+        final RateLimitGovernor rateLimits = ResourceUtilities.getRateLimitGovernor();
+        rateLimits.acquire(get);
+        try {
+            final Response page = client.execute(get, response -> {
+                final Header link = response.getFirstHeader("Link");
+                final Header challenge = response.getFirstHeader(HttpHeaders.WWW_AUTHENTICATE);
+                final boolean limited = rateLimits.record(get, response);
+                return new Response(response.getStatusLine().getStatusCode(),
+                        response.getEntity() == null ? null : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8),
+                        link == null ? null : link.getValue(), challenge == null ? null : challenge.getValue(), limited);
+            });
+            if (page.limited) {
+                // says until when
+                rateLimits.acquire(get);
+            }
+            return page;
+        } catch (IOException ex) {
+            LOG.error("get(): caught 'IOException' while processing request <{}> :=> <{}>", url, ex.getMessage());
+            return new Response(0, null, null, null, false);
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * @param url
+     *            the page just read
+     * @param link
+     *            its Link header, null if it had none
+     * @return the next page, null if this was the last one or it is not on the same registry
+     */
+    static String getNextPage(String url, String link) {
+        if (link == null) {
+            return null;
+        }
+        final Matcher matcher = NEXT_LINK.matcher(link);
+        if (!matcher.find()) {
+            return null;
+        }
+        final URI current = URI.create(url);
+        final URI next;
+        try {
+            // usually relative to the registry
+            next = current.resolve(new URI(matcher.group(1)));
+        } catch (URISyntaxException ex) {
+            LOG.info("Unusable next page {} after {}", matcher.group(1), url);
+            return null;
+        }
+        if (!isSameOrigin(current, next)) {
+            // the pull token goes along with every page
+            LOG.info("Not following next page {} off the registry of {}", next, url);
+            return null;
+        }
+        return next.toString();
+    }
+
+    private static boolean isSameOrigin(URI one, URI other) {
+        return one.getScheme() != null && one.getScheme().equalsIgnoreCase(other.getScheme()) && one.getHost() != null
+                && one.getHost().equalsIgnoreCase(other.getHost()) && port(one) == port(other);
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? HTTPS_PORT : HTTP_PORT;
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String body;
+        private final String link;
+        private final String challenge;
+        // turned away by the rate limit
+        private final boolean limited;
+
+        private Response(int status, String body, String link, String challenge, boolean limited) {
+            this.status = status;
+            this.body = body;
+            this.link = link;
+            this.challenge = challenge;
+            this.limited = limited;
+        }
+    }
+
+    private static final class TagList {
+        private final List<String> names;
+        // null if the registry did not ask for one
+        private final String token;
+
+        private TagList(List<String> names, String token) {
+            this.names = names;
+            this.token = token;
+        }
+    }
+
+    /**
+     * Refreshes containers on private registries, named by the host at the start of their path.
+     */
+    public static class Provider implements ImageRegistryProvider {
+        private static final String PROVIDER_NAME = "private registry";
+
+        @Override
+        public String getName() {
+            return PROVIDER_NAME;
+        }
+
+        @Override
+        public boolean handles(String host) {
+            return allowedHosts.contains(host);
+        }
+
+        @Override
+        public ImageRegistryInterface create(HttpClient client, ObjectMapper objectMapper, Token quayToken) {
+            return new OciRegistry(client, objectMapper);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+import io.dockstore.webservice.core.Tag;
+import io.dockstore.webservice.resources.ResourceUtilities;
+
+/**
+ * Reads a Quay.io repository's build history only as far back as needed to find the build behind each of its tags.
+ *
+ * Quay.io lists builds most recent first and only takes a limit and a start time, there is no cursor to continue from. So a page
+ * that does not reach back far enough is asked for again with a larger limit, up to {@link #MAX_PAGE_SIZE}.
+ */
+final class QuayBuildHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuayBuildHistory.class);
+
+    private static final int FIRST_PAGE_SIZE = 10;
+    // the most builds Quay.io returns for one call
+    private static final int MAX_PAGE_SIZE = 100;
+
+    private final HttpClient client;
+    private final String token;
+
+    QuayBuildHistory(HttpClient client, String token) {
+        this.client = client;
+        this.token = token;
+    }
+
+    /**
+     * @param repo
+     *            namespace/name
+     * @param tags
+     *            the repository's current tags
+     * @param checkedUntil
+     *            the time up to which builds were matched to tags by an earlier refresh, null to start from scratch
+     * @return the builds, absent if Quay.io could not be read. If nothing but the tags that moved after checkedUntil needed
+     *         resolving, only builds since then are held, see {@link BuildIndex#getSince()}.
+     */
+    Optional<BuildIndex> fetch(String repo, Collection<Tag> tags, Date checkedUntil) {
+        if (checkedUntil != null) {
+            final Set<String> moved = new HashSet<>();
+            for (Tag tag : tags) {
+                if (tag.getLastModified() != null && tag.getLastModified().after(checkedUntil)) {
+                    moved.add(tag.getName());
+                }
+            }
+            // a second early, Quay.io's times are in whole seconds and the build at checkedUntil may have moved a tag since
+            final long since = TimeUnit.MILLISECONDS.toSeconds(checkedUntil.getTime()) - 1;
+            final Optional<List<ImageBuild>> newer = fetchUntilResolved(repo, since, moved);
+            if (!newer.isPresent()) {
+                return Optional.absent();
+            }
+            if (unresolved(newer.get(), moved).isEmpty()) {
+                return Optional.of(new BuildIndex(newer.get(), checkedUntil));
+            }
+            // moved to an image from an older build, or pushed by hand
+            LOG.info("Tags of {} moved without a build since {}, reading its build history from the start", repo, checkedUntil);
+        }
+
+        final Set<String> names = new HashSet<>();
+        for (Tag tag : tags) {
+            names.add(tag.getName());
+        }
+        final Optional<List<ImageBuild>> builds = fetchUntilResolved(repo, null, names);
+        return builds.isPresent() ? Optional.of(new BuildIndex(builds.get())) : Optional.<BuildIndex> absent();
+    }
+
+    /**
+     * @param since
+     *            unix time, null for all builds
+     * @return the most recent builds, as many as it took to find one for each of the tags or to run out of builds
+     */
+    private Optional<List<ImageBuild>> fetchUntilResolved(String repo, Long since, Set<String> tags) {
+        int limit = FIRST_PAGE_SIZE;
+        while (true) {
+            final String url = QuayImageRegistry.QUAY_URL + "repository/" + repo + "/build/?limit=" + limit
+                    + (since == null ? "" : "&since=" + since);
+            final Optional<String> json = ResourceUtilities.asString(url, token, client);
+            LOG.info("RESOURCE CALL: {}", url);
+            if (!json.isPresent()) {
+                return Optional.absent();
+            }
+
+            final List<ImageBuild> builds;
+            try {
+                builds = QuayResponseParser.parseBuilds(json.get());
+            } catch (IOException ex) {
+                LOG.info("Exception: {}", ex);
+                return Optional.absent();
+            }
+
+            if (builds.size() < limit || limit >= MAX_PAGE_SIZE || unresolved(builds, tags).isEmpty()) {
+                return Optional.of(builds);
+            }
+            limit = Math.min(limit * 2, MAX_PAGE_SIZE);
+        }
+    }
+
+    private static Set<String> unresolved(List<ImageBuild> builds, Set<String> tags) {
+        final Set<String> unresolved = new HashSet<>(tags);
+        for (ImageBuild build : builds) {
+            if (unresolved.isEmpty()) {
+                break;
+            }
+            unresolved.removeAll(build.getTags());
+        }
+        return unresolved;
+    }
+}
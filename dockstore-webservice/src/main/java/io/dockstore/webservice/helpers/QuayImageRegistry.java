@@ -1,20 +1,22 @@
 package io.dockstore.webservice.helpers;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+
+import javax.ws.rs.client.Client;
 
 import org.apache.http.client.HttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Optional;
 import com.google.gson.Gson;
 
@@ -25,11 +27,14 @@ import io.dockstore.webservice.core.ContainerMode;
 import io.dockstore.webservice.core.Registry;
 import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
+import io.dockstore.webservice.resources.RateLimitClientFilter;
 import io.dockstore.webservice.resources.ResourceUtilities;
 import io.swagger.quay.client.ApiClient;
 import io.swagger.quay.client.ApiException;
 import io.swagger.quay.client.Configuration;
+import io.swagger.quay.client.api.RepositorynotificationApi;
 import io.swagger.quay.client.api.UserApi;
+import io.swagger.quay.client.model.NotificationCreateRequest;
 import io.swagger.quay.client.model.UserView;
 
 /**
@@ -37,10 +42,20 @@ import io.swagger.quay.client.model.UserView;
  */
 public class QuayImageRegistry implements ImageRegistryInterface {
 
-    public static final String QUAY_URL = "https://quay.io/api/v1/";
+    public static final String QUAY_HOST = "quay.io";
+    public static final String QUAY_URL = "https://" + QUAY_HOST + "/api/v1/";
 
     private static final Logger LOG = LoggerFactory.getLogger(QuayImageRegistry.class);
 
+    // what Quay.io lists for each repository of a namespace, which our container objects mirror
+    private static final String[] LISTED_REPOSITORY_FIELDS = { "namespace", "name", "description", "is_public", "is_starred" };
+
+    /**
+     * Pooled, thread-safe client shared by every registry instance; only the per-user headers differ.
+     */
+    private static final Client QUAY_HTTP_CLIENT = Configuration.getDefaultApiClient().getHttpClient()
+            .register(new RateLimitClientFilter(ResourceUtilities.getRateLimitGovernor()));
+
     private final HttpClient client;
     private final ObjectMapper objectMapper;
     private final Token quayToken;
@@ -51,7 +66,7 @@ public class QuayImageRegistry implements ImageRegistryInterface {
         this.objectMapper = objectMapper;
         this.quayToken = quayToken;
 
-        apiClient = Configuration.getDefaultApiClient();
+        apiClient = new ApiClient().setHttpClient(QUAY_HTTP_CLIENT);
         apiClient.addDefaultHeader("Authorization", "Bearer " + quayToken.getContent());
         //apiClient.setBasePath(QUAY_URL);
     }
@@ -63,31 +78,14 @@ public class QuayImageRegistry implements ImageRegistryInterface {
         final String repoUrl = QUAY_URL + "repository/" + repo;
         final Optional<String> asStringBuilds = ResourceUtilities.asString(repoUrl, quayToken.getContent(), client);
 
-        final List<Tag> tags = new ArrayList<>();
-
         if (asStringBuilds.isPresent()) {
-            final String json = asStringBuilds.get();
-            // LOG.info(json);
-
-            Gson gson = new Gson();
-            Map<String, Map<String, Map<String, String>>> map = new HashMap<>();
-            map = (Map<String, Map<String, Map<String, String>>>) gson.fromJson(json, map.getClass());
-
-            final Map<String, Map<String, String>> listOfTags = map.get("tags");
-
-            for (Entry<String, Map<String, String>> stringMapEntry : listOfTags.entrySet()) {
-                final String s = gson.toJson(stringMapEntry.getValue());
-                try {
-                    final Tag tag = objectMapper.readValue(s, Tag.class);
-                    tags.add(tag);
-                    // LOG.info(gson.toJson(tag));
-                } catch (IOException ex) {
-                    LOG.info("Exception: {}", ex);
-                }
+            try {
+                return QuayResponseParser.parseTags(asStringBuilds.get());
+            } catch (IOException ex) {
+                LOG.info("Exception: {}", ex);
             }
-
         }
-        return tags;
+        return new ArrayList<>();
     }
 
     @Override
@@ -110,6 +108,60 @@ public class QuayImageRegistry implements ImageRegistryInterface {
         return namespaces;
     }
 
+    @Override
+    public Optional<String> getListingHost() {
+        return Optional.of(QUAY_HOST);
+    }
+
+    /**
+     * Ask Quay.io to call a webhook whenever an image is pushed to the container's repository, built there or not
+     *
+     * @param container
+     * @param webhookUrl
+     * @return true if the notification was added
+     */
+    public boolean addPushNotification(Container container, String webhookUrl) {
+        final NotificationCreateRequest request = new NotificationCreateRequest();
+        request.setTitle("Dockstore");
+        request.setEvent("repo_push");
+        request.setMethod("webhook");
+        request.setConfig(Collections.singletonMap("url", webhookUrl));
+        request.setEventConfig(Collections.emptyMap());
+        try {
+            new RepositorynotificationApi(apiClient).createRepoNotification(container.getNamespace() + '/' + container.getName(), request);
+            return true;
+        } catch (ApiException e) {
+            LOG.warn("Could not add a push notification to {}: {}", container.getPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Take back a notification added by {@link #addPushNotification(Container, String)}
+     *
+     * @param container
+     * @param webhookUrl
+     *            the url the notification calls
+     */
+    public void removePushNotification(Container container, String webhookUrl) {
+        final String repo = container.getNamespace() + '/' + container.getName();
+        final Optional<String> asString = ResourceUtilities.asString(QUAY_URL + "repository/" + repo + "/notification/",
+                quayToken.getContent(), client);
+        if (!asString.isPresent()) {
+            LOG.warn("Could not list the notifications of {} to remove ours", container.getPath());
+            return;
+        }
+        try {
+            for (JsonNode notification : objectMapper.readTree(asString.get()).path("notifications")) {
+                if (webhookUrl.equals(notification.path("config").path("url").asText())) {
+                    new RepositorynotificationApi(apiClient).deleteRepoNotification(notification.path("uuid").asText(), repo);
+                }
+            }
+        } catch (IOException | ApiException e) {
+            LOG.warn("Could not remove the push notification of {}: {}", container.getPath(), e.getMessage());
+        }
+    }
+
     @Override
     public List<Container> getContainers(List<String> namespaces) {
         List<Container> containerList = new ArrayList<>(0);
@@ -142,13 +194,31 @@ public class QuayImageRegistry implements ImageRegistryInterface {
     }
 
     @Override
-    public Map<String, ArrayList<?>> getBuildMap(List<Container> allRepos) {
-        final SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z");
+    public Optional<Container> getContainer(String namespace, String name) {
+        final String url = QUAY_URL + "repository/" + namespace + '/' + name;
+        final Optional<String> asString = ResourceUtilities.asString(url, quayToken.getContent(), client);
+        LOG.info("RESOURCE CALL: {}", url);
+        if (!asString.isPresent()) {
+            return Optional.absent();
+        }
+        try {
+            // the single repository view adds tags, permissions and the like to the fields of the namespace listing, keep only those
+            final ObjectNode repository = ((ObjectNode) objectMapper.readTree(asString.get())).retain(LISTED_REPOSITORY_FIELDS);
+            final Container container = objectMapper.treeToValue(repository, Container.class);
+            container.setRegistry(Registry.QUAY_IO);
+            container.setMode(ContainerMode.AUTO_DETECT_QUAY_TAGS_AUTOMATED_BUILDS);
+            return Optional.of(container);
+        } catch (IOException | ClassCastException ex) {
+            LOG.info("Exception: {}", ex);
+            return Optional.absent();
+        }
+    }
 
-        final Map<String, ArrayList<?>> mapOfBuilds = new HashMap<>();
+    @Override
+    public Map<String, BuildIndex> getBuildMap(List<Container> allRepos) {
+        final Map<String, BuildIndex> mapOfBuilds = new HashMap<>();
 
         // Go through each container for each namespace
-        final Gson gson = new Gson();
         for (final Container container : allRepos) {
 
             if (container.getRegistry() != Registry.QUAY_IO) {
@@ -163,7 +233,7 @@ public class QuayImageRegistry implements ImageRegistryInterface {
             if (container.getMode() != ContainerMode.MANUAL_IMAGE_PATH) {
                 // checkTriggers(container);
                 // if (container.hasValidTrigger()) {
-                updateContainersWithBuildInfo(formatter, mapOfBuilds, gson, container, repo, path);
+                updateContainersWithBuildInfo(mapOfBuilds, container, repo, path);
                 // }
             }
         }
@@ -173,56 +243,55 @@ public class QuayImageRegistry implements ImageRegistryInterface {
     /**
      * For a given container, update its registry, git, and build information with information from quay.io
      * 
-     * @param formatter
      * @param mapOfBuilds
-     * @param gson
      * @param container
      * @param repo
      * @param path
      */
-    private void updateContainersWithBuildInfo(SimpleDateFormat formatter, Map<String, ArrayList<?>> mapOfBuilds, Gson gson,
-            Container container, String repo, String path) {
+    private void updateContainersWithBuildInfo(Map<String, BuildIndex> mapOfBuilds, Container container, String repo, String path) {
         // Get the list of builds from the container.
-        // Builds contain information such as the Git URL and tags
-        String urlBuilds = QUAY_URL + "repository/" + repo + "/build/";
-        Optional<String> asStringBuilds = ResourceUtilities.asString(urlBuilds, quayToken.getContent(), client);
-        LOG.info("RESOURCE CALL: {}", urlBuilds);
+        // Builds contain information such as the Git URL and tags.
+        // The current tags say how far back to read, this is the same call getTags makes later and is answered from cache then
+        final List<Tag> tags = getTags(container);
+        final Date checkedUntil = container.getBuildsCheckedUntil();
+        final Optional<BuildIndex> fetched = new QuayBuildHistory(client, quayToken.getContent()).fetch(repo, tags, checkedUntil);
 
-        String gitURL = "";
-
-        if (asStringBuilds.isPresent()) {
-            String json = asStringBuilds.get();
-
-            // parse json using Gson to get the git url of repository and the list of tags
-            Map<String, ArrayList> map = new HashMap<>();
-            map = (Map<String, ArrayList>) gson.fromJson(json, map.getClass());
-            ArrayList builds = map.get("builds");
+        // when only newer builds are read, what earlier refreshes found stays unless a newer build replaces it
+        String gitURL = checkedUntil == null || container.getGitUrl() == null ? "" : container.getGitUrl();
 
+        if (fetched.isPresent()) {
+            final BuildIndex builds = fetched.get();
             mapOfBuilds.put(path, builds);
+            if (builds.getSince() == null) {
+                gitURL = "";
+            }
 
-            if (!builds.isEmpty()) {
-                Map<String, Map<String, String>> map2 = (Map<String, Map<String, String>>) builds.get(0);
-
-                gitURL = map2.get("trigger_metadata").get("git_url");
-
-                Map<String, String> map3 = (Map<String, String>) builds.get(0);
-                String lastBuild = map3.get("started");
-                LOG.info("LAST BUILD: {}", lastBuild);
-
-                Date date;
-                try {
-                    date = formatter.parse(lastBuild);
-                    container.setLastBuild(date);
-                } catch (ParseException ex) {
-                    LOG.info("Build date did not match format 'EEE, d MMM yyyy HH:mm:ss Z'");
+            Date newCheckedUntil = checkedUntil;
+            final Optional<ImageBuild> lastBuild = builds.getLatest();
+            if (lastBuild.isPresent()) {
+                if (lastBuild.get().getGitUrl() != null) {
+                    gitURL = lastBuild.get().getGitUrl();
+                }
+                LOG.info("LAST BUILD: {}", lastBuild.get().getStarted());
+                if (lastBuild.get().getStarted() != null) {
+                    container.setLastBuild(lastBuild.get().getStarted());
+                    newCheckedUntil = later(newCheckedUntil, lastBuild.get().getStarted());
                 }
             }
+            for (Tag tag : tags) {
+                newCheckedUntil = later(newCheckedUntil, tag.getLastModified());
+            }
+            container.setBuildsCheckedUntil(newCheckedUntil);
         }
 
         container.setRegistry(Registry.QUAY_IO);
         container.setGitUrl(gitURL);
     }
 
+    private static Date later(Date date, Date other) {
+        return date == null || other != null && other.after(date) ? other : date;
+    }
+
     // TODO: This method may have some use later. It uses /api/v1/repository/{repository}/trigger/ to get the git URL for a container, and
     // checks if it has only one trigger from one source (bitbucket/github).
     private void checkTriggers(Container container) {
@@ -262,4 +331,24 @@ public class QuayImageRegistry implements ImageRegistryInterface {
             container.setValidTrigger(validTrigger);
         }
     }
+
+    /**
+     * Refreshes containers on Quay.io.
+     */
+    public static class Provider implements ImageRegistryProvider {
+        @Override
+        public String getName() {
+            return QUAY_HOST;
+        }
+
+        @Override
+        public boolean handles(String host) {
+            return QUAY_HOST.equals(host);
+        }
+
+        @Override
+        public ImageRegistryInterface create(HttpClient client, ObjectMapper objectMapper, Token quayToken) {
+            return new QuayImageRegistry(client, objectMapper, quayToken);
+        }
+    }
 }
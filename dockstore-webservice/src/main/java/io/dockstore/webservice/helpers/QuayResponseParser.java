@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.dockstore.webservice.core.Tag;
+
+/**
+ * Decodes Quay.io repository and build responses in a single streaming pass, straight into the objects a refresh keeps. Fields we do
+ * not use (image layers, build logs, permissions and the like) are skipped without being materialized.
+ */
+final class QuayResponseParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuayResponseParser.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private QuayResponseParser() {
+        // utility class
+    }
+
+    /**
+     * @param json
+     *            a repository/{repository} response
+     * @return the repository's tags
+     * @throws IOException
+     *             if the response is not a JSON object
+     */
+    static List<Tag> parseTags(String json) throws IOException {
+        final List<Tag> tags = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            parser.nextToken();
+            requireObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && "tags".equals(field)) {
+                    // keyed by tag name, which is repeated inside each tag
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        parser.nextToken();
+                        tags.add(readTag(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * @param json
+     *            a repository/{repository}/build/ response
+     * @return the builds in the order Quay.io lists them, most recent first
+     * @throws IOException
+     *             if the response is not a JSON object
+     */
+    static List<ImageBuild> parseBuilds(String json) throws IOException {
+        final List<ImageBuild> builds = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            parser.nextToken();
+            requireObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && "builds".equals(field)) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        builds.add(readBuild(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return builds;
+    }
+
+    private static Tag readTag(JsonParser parser) throws IOException {
+        requireObject(parser);
+        final Tag tag = new Tag();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+            case "name":
+                tag.setName(parser.getValueAsString());
+                break;
+            case "image_id":
+                tag.setImageId(parser.getValueAsString());
+                break;
+            case "last_modified":
+                tag.setLastModified(parseDate(parser.getValueAsString()));
+                break;
+            case "size":
+                tag.setSize(parser.getValueAsLong());
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+        return tag;
+    }
+
+    private static ImageBuild readBuild(JsonParser parser) throws IOException {
+        requireObject(parser);
+        String id = null;
+        Date started = null;
+        final List<String> tags = new ArrayList<>();
+        String gitUrl = null;
+        String reference = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                id = parser.getValueAsString();
+            } else if ("started".equals(field)) {
+                started = parseDate(parser.getValueAsString());
+            } else if ("tags".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    tags.add(parser.getValueAsString());
+                }
+            } else if ("trigger_metadata".equals(field) && value == JsonToken.START_OBJECT) {
+                // absent or null for builds that were not started by a git push
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String triggerField = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("git_url".equals(triggerField)) {
+                        gitUrl = parser.getValueAsString();
+                    } else if ("ref".equals(triggerField)) {
+                        reference = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new ImageBuild(id, started, tags, gitUrl, reference);
+    }
+
+    private static void requireObject(JsonParser parser) throws JsonParseException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected a JSON object but found " + parser.getCurrentToken(), parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * @param date
+     *            an RFC 1123 date as Quay.io writes them, e.g. "Tue, 1 Mar 2016 21:17:40 -0000"
+     * @return null if the date is missing or could not be read
+     */
+    private static Date parseDate(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return Date.from(ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException ex) {
+            LOG.info("Date did not match RFC 1123: {}", date);
+            return null;
+        }
+    }
+}
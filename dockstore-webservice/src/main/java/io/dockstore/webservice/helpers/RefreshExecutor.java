@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpStatus;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+
+/**
+ * Runs the network calls of a refresh (image registries and source code repos) on a bounded pool of threads, with a cap on how many calls
+ * can be in flight against any one host. Calls over the cap wait in a queue of their host rather than on a pool thread, so a slow host
+ * cannot tie up the threads that calls to other hosts need.
+ *
+ * Only hand this work that does not touch Hibernate. The session is bound to the request thread, so all DAO calls, and changes to the
+ * entities it manages, need to stay there.
+ */
+public class RefreshExecutor {
+
+    private final ExecutorService executor;
+    private final int maxRequestsPerHost;
+    private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+
+    public RefreshExecutor(ExecutorService executor, int maxRequestsPerHost) {
+        this.executor = executor;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * Queue a call against a host
+     *
+     * @param host
+     *            calls with the same host share a concurrency limit
+     * @param call
+     * @return a future for the result, use {@link #getResult(Future)} to wait on it
+     */
+    public <T> Future<T> submit(final String host, final Callable<T> call) {
+        final FutureTask<T> task = new FutureTask<>(call);
+        hostQueues.computeIfAbsent(host, key -> new HostQueue()).submit(task);
+        return task;
+    }
+
+    /**
+     * Wait for a call to finish. Exceptions thrown by the call are re-thrown here, on the calling thread, just as if the call had been
+     * made directly.
+     *
+     * @param future
+     * @return the result of the call
+     */
+    public <T> T getResult(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new CustomWebApplicationException("Refresh was interrupted.", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * The calls to one host that are waiting for one of its slots, and how many are running.
+     */
+    private final class HostQueue {
+        private final Queue<FutureTask<?>> waiting = new ArrayDeque<>();
+        private int running;
+
+        void submit(FutureTask<?> task) {
+            synchronized (this) {
+                if (running >= maxRequestsPerHost) {
+                    waiting.add(task);
+                    return;
+                }
+                running++;
+            }
+            start(task);
+        }
+
+        private void start(FutureTask<?> task) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        next();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // shutting down, nobody will run what is left
+                task.cancel(false);
+                next();
+            }
+        }
+
+        private void next() {
+            final FutureTask<?> task;
+            synchronized (this) {
+                task = waiting.poll();
+                if (task == null) {
+                    running--;
+                    return;
+                }
+            }
+            start(task);
+        }
+    }
+}
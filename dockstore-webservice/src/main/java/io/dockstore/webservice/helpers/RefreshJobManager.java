@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.client.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.dockstore.webservice.Helper;
+import io.dockstore.webservice.api.RefreshJob;
+import io.dockstore.webservice.core.Token;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dockstore.webservice.jdbi.FileDAO;
+import io.dockstore.webservice.jdbi.TagDAO;
+import io.dockstore.webservice.jdbi.TokenDAO;
+import io.dockstore.webservice.jdbi.UnitOfWorkRunner;
+import io.dockstore.webservice.jdbi.UserDAO;
+
+/**
+ * Runs refreshes in the background so that requests return right away with a job to poll.
+ *
+ * Only one job at a time runs for any given user or container: asking again while one is queued or running hands back the existing job.
+ * Each job (each user, for a refresh of everything) runs in its own session and transaction.
+ */
+public class RefreshJobManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshJobManager.class);
+
+    private static final int MAX_FINISHED_JOBS = 1000;
+    private static final long FINISHED_JOB_HOURS = 1;
+
+    private final ExecutorService jobPool;
+    private final UnitOfWorkRunner unitOfWork;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    private final UserDAO userDAO;
+    private final ContainerDAO containerDAO;
+    private final TokenDAO tokenDAO;
+    private final TagDAO tagDAO;
+    private final FileDAO fileDAO;
+    private final String bitbucketClientID;
+    private final String bitbucketClientSecret;
+    private final RefreshExecutor refreshExecutor;
+    private final ContainerSearchEngine searchEngine;
+
+    private final AtomicLong nextJobId = new AtomicLong();
+    private final ConcurrentMap<String, RefreshJob> activeJobs = new ConcurrentHashMap<>();
+    private final Cache<Long, RefreshJob> jobs = CacheBuilder.newBuilder().maximumSize(MAX_FINISHED_JOBS)
+            .expireAfterAccess(FINISHED_JOB_HOURS, TimeUnit.HOURS).build();
+
+    @SuppressWarnings("checkstyle:parameternumber")
+    public RefreshJobManager(ExecutorService jobPool, UnitOfWorkRunner unitOfWork, HttpClient client, ObjectMapper objectMapper,
+            UserDAO userDAO, ContainerDAO containerDAO, TokenDAO tokenDAO, TagDAO tagDAO, FileDAO fileDAO, String bitbucketClientID,
+            String bitbucketClientSecret, RefreshExecutor refreshExecutor, ContainerSearchEngine searchEngine) {
+        this.jobPool = jobPool;
+        this.unitOfWork = unitOfWork;
+        this.client = client;
+        this.objectMapper = objectMapper;
+        this.userDAO = userDAO;
+        this.containerDAO = containerDAO;
+        this.tokenDAO = tokenDAO;
+        this.tagDAO = tagDAO;
+        this.fileDAO = fileDAO;
+        this.bitbucketClientID = bitbucketClientID;
+        this.bitbucketClientSecret = bitbucketClientSecret;
+        this.refreshExecutor = refreshExecutor;
+        this.searchEngine = searchEngine;
+    }
+
+    /**
+     * @param jobId
+     * @return the job, if it is still running or finished recently
+     */
+    public Optional<RefreshJob> getJob(long jobId) {
+        final RefreshJob job = jobs.getIfPresent(jobId);
+        if (job != null) {
+            return Optional.of(job);
+        }
+        for (RefreshJob active : activeJobs.values()) {
+            if (active.getId() == jobId) {
+                return Optional.of(active);
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Refresh all of a user's containers
+     *
+     * @param userId
+     *            the user to refresh
+     * @param requesterId
+     *            the user asking for the refresh
+     * @return the new job, or the one already queued or running for this user
+     */
+    public RefreshJob refreshUser(final long userId, final long requesterId) {
+        return submit("user:" + userId, new RefreshJob(nextJobId.incrementAndGet(), RefreshJob.Type.USER, userId, requesterId),
+                job -> unitOfWork.run(() -> refreshUser(userId, job)));
+    }
+
+    /**
+     * Refresh one container using the tokens of the user asking for it
+     *
+     * @param containerId
+     * @param requesterId
+     * @return the new job, or the one already queued or running for this container
+     */
+    public RefreshJob refreshContainer(final long containerId, final long requesterId) {
+        return submit("container:" + containerId, new RefreshJob(nextJobId.incrementAndGet(), RefreshJob.Type.CONTAINER, containerId,
+                requesterId), job -> unitOfWork.run(() -> searchEngine.updateOnCommit(Helper.refreshContainer(containerId, requesterId, client,
+                objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO, refreshExecutor, job))));
+    }
+
+    /**
+     * Refresh every user's containers, one user at a time. A user that fails is recorded on the job and does not stop the others.
+     *
+     * @param requesterId
+     * @return the new job, or the one already queued or running
+     */
+    public RefreshJob refreshAll(final long requesterId) {
+        return submit("all", new RefreshJob(nextJobId.incrementAndGet(), RefreshJob.Type.ALL, null, requesterId), job -> {
+            final List<Long> userIds = unitOfWork.call(() -> {
+                final List<Long> ids = new ArrayList<>();
+                for (User user : userDAO.findAll()) {
+                    ids.add(user.getId());
+                }
+                return ids;
+            });
+            for (final Long userId : userIds) {
+                try {
+                    unitOfWork.run(() -> refreshUser(userId, job));
+                } catch (WebApplicationException ex) {
+                    LOG.info("Failed to refresh user {}", userId);
+                    job.failed("user " + userId, describe(ex));
+                }
+            }
+        });
+    }
+
+    private void refreshUser(final long userId, final RefreshJob job) {
+        final List<Token> tokens = tokenDAO.findBitbucketByUserId(userId);
+        if (!tokens.isEmpty()) {
+            Helper.refreshBitbucketToken(tokens.get(0), client, tokenDAO, bitbucketClientID, bitbucketClientSecret);
+        }
+        searchEngine.updateOnCommit(Helper.refresh(userId, client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO,
+                refreshExecutor, job));
+    }
+
+    private RefreshJob submit(final String key, final RefreshJob candidate, final Consumer<RefreshJob> work) {
+        final RefreshJob existing = activeJobs.putIfAbsent(key, candidate);
+        if (existing != null) {
+            return existing;
+        }
+        jobs.put(candidate.getId(), candidate);
+        jobPool.submit(() -> {
+            candidate.start();
+            try {
+                work.accept(candidate);
+                candidate.finish(RefreshJob.Status.SUCCEEDED);
+            } catch (RuntimeException ex) {
+                LOG.error("Refresh job {} ({}) failed", candidate.getId(), key, ex);
+                candidate.failed(key, describe(ex));
+                final Long retryAfter = retryAfterSeconds(ex);
+                if (retryAfter != null) {
+                    candidate.rateLimited(retryAfter);
+                }
+                candidate.finish(RefreshJob.Status.FAILED);
+            } finally {
+                activeJobs.remove(key, candidate);
+            }
+        });
+        return candidate;
+    }
+
+    /**
+     * @return the Retry-After of a 503 the rate limits failed the job with, null if it failed for something else
+     */
+    private static Long retryAfterSeconds(final RuntimeException ex) {
+        if (!(ex instanceof WebApplicationException)) {
+            return null;
+        }
+        final Response response = ((WebApplicationException) ex).getResponse();
+        final String retryAfter = response.getHeaderString(HttpHeaders.RETRY_AFTER);
+        if (response.getStatus() != Response.Status.SERVICE_UNAVAILABLE.getStatusCode() || retryAfter == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(retryAfter);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String describe(final RuntimeException ex) {
+        if (ex instanceof WebApplicationException) {
+            final Object entity = ((WebApplicationException) ex).getResponse().getEntity();
+            if (entity != null) {
+                return entity.toString();
+            }
+        }
+        return String.valueOf(ex.getMessage());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import io.dockstore.webservice.core.Container;
+
+/**
+ * Receives updates as a refresh works its way through a user's containers.
+ */
+public interface RefreshProgress {
+
+    /**
+     * For refreshes nobody is watching.
+     */
+    RefreshProgress NONE = new RefreshProgress() {
+        @Override
+        public void containersFound(int count) {
+        }
+
+        @Override
+        public void containerRefreshed(Container container) {
+        }
+
+        @Override
+        public void failed(String item, String reason) {
+        }
+    };
+
+    /**
+     * @param count
+     *            number of containers that are about to be refreshed, may be called more than once per refresh
+     */
+    void containersFound(int count);
+
+    /**
+     * @param container
+     *            a container whose tags and files have been saved
+     */
+    void containerRefreshed(Container container);
+
+    /**
+     * @param item
+     *            what could not be refreshed (a container path, a user)
+     * @param reason
+     */
+    void failed(String item, String reason);
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.dockstore.webservice.api.RefreshJob;
+import io.dockstore.webservice.jdbi.ClusterLeader;
+import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dockstore.webservice.jdbi.UnitOfWorkRunner;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Keeps registered containers fresh without anyone asking. Each pass picks up the containers not refreshed within the interval, never
+ * refreshed and least recently refreshed first, and spreads them evenly over the next interval. Only the node leading for
+ * {@link #LEADER_LOCK} runs passes, so nodes sharing the database do not each refresh everything. Each refresh is a job (see
+ * {@link RefreshJobManager}) using the tokens of one of the container's users, and only one is in flight at a time, so a pass slows down
+ * rather than piling up while the rate limits of GitHub or Quay hold calls back. When a rate limit fails a refresh outright the pass waits
+ * for its Retry-After before going on. Containers whose refresh failed keep their old refresh time, so that they do not crowd out the
+ * others they go last in the next pass rather than first.
+ */
+public class ScheduledRefresher implements Managed {
+    /**
+     * The advisory lock of the node that runs the scheduled refreshes, see {@link ClusterLeader}
+     */
+    public static final long LEADER_LOCK = 0x5c4ed;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScheduledRefresher.class);
+
+    // how often to look again when nothing is stale
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ScheduledExecutorService scheduler;
+    private final UnitOfWorkRunner unitOfWork;
+    private final ContainerDAO containerDAO;
+    private final RefreshJobManager jobManager;
+    private final ClusterLeader leader;
+    private final long intervalMillis;
+
+    private final Deque<Map.Entry<Long, Long>> pass = new ArrayDeque<>();
+    // containers whose last scheduled refresh failed
+    private final Set<Long> failed = new HashSet<>();
+    private long spacingMillis;
+    private RefreshJob current;
+
+    /**
+     * @param scheduler
+     *            single thread the passes are run on
+     * @param unitOfWork
+     * @param containerDAO
+     * @param jobManager
+     * @param leader
+     *            decides which node runs the passes
+     * @param intervalMillis
+     *            how often each registered container should be refreshed, 0 to not refresh in the background at all
+     */
+    public ScheduledRefresher(ScheduledExecutorService scheduler, UnitOfWorkRunner unitOfWork, ContainerDAO containerDAO,
+            RefreshJobManager jobManager, ClusterLeader leader, long intervalMillis) {
+        this.scheduler = scheduler;
+        this.unitOfWork = unitOfWork;
+        this.containerDAO = containerDAO;
+        this.jobManager = jobManager;
+        this.leader = leader;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void start() {
+        if (intervalMillis > 0) {
+            schedule(0);
+        }
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+        leader.release();
+    }
+
+    private void schedule(long delayMillis) {
+        if (!scheduler.isShutdown()) {
+            scheduler.schedule(this::tick, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void tick() {
+        long delay = spacingMillis;
+        try {
+            // while the last one is still going (most likely held back by a rate limit) just check again later
+            if (current != null && current.hasFinished()) {
+                delay = finished(current);
+                current = null;
+            } else if (current == null) {
+                if (!leader.isLeader()) {
+                    // another node runs the passes, check again later in case it goes away
+                    pass.clear();
+                    delay = Math.min(IDLE_MILLIS, intervalMillis);
+                } else if (pass.isEmpty() && !startPass()) {
+                    delay = Math.min(IDLE_MILLIS, intervalMillis);
+                } else {
+                    final Map.Entry<Long, Long> next = pass.poll();
+                    current = jobManager.refreshContainer(next.getKey(), next.getValue());
+                    delay = spacingMillis;
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("Scheduled refresh failed", ex);
+        } finally {
+            schedule(delay);
+        }
+    }
+
+    /**
+     * @return how long to wait before the next refresh
+     */
+    private long finished(RefreshJob job) {
+        if (job.getStatus() != RefreshJob.Status.FAILED) {
+            failed.remove(job.getTargetId());
+            return 0;
+        }
+        failed.add(job.getTargetId());
+        if (job.getRetryAfterSeconds() == null) {
+            return 0;
+        }
+        LOG.info("A rate limit stopped the scheduled refresh of container {}, waiting {} seconds", job.getTargetId(),
+                job.getRetryAfterSeconds());
+        return TimeUnit.SECONDS.toMillis(job.getRetryAfterSeconds());
+    }
+
+    private boolean startPass() {
+        final Date before = new Date(System.currentTimeMillis() - intervalMillis);
+        final Map<Long, Long> stale = unitOfWork.call(() -> containerDAO.findStaleRegistered(before));
+        if (stale.isEmpty()) {
+            return false;
+        }
+        failed.retainAll(stale.keySet());
+        final List<Map.Entry<Long, Long>> last = new ArrayList<>();
+        for (Map.Entry<Long, Long> container : stale.entrySet()) {
+            if (failed.contains(container.getKey())) {
+                last.add(container);
+            } else {
+                pass.add(container);
+            }
+        }
+        pass.addAll(last);
+        spacingMillis = intervalMillis / stale.size();
+        LOG.info("Refreshing {} registered containers over the next {} minutes", stale.size(), TimeUnit.MILLISECONDS.toMinutes(intervalMillis));
+        return true;
+    }
+}
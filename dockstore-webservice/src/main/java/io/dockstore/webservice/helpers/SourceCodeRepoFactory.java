@@ -34,7 +34,7 @@ public class SourceCodeRepoFactory {
 
         SourceCodeRepoInterface repo;
         if ("github.com".equals(source)) {
-            repo = new GitHubSourceCodeRepo(gitUsername, githubTokenContent, gitRepository);
+            repo = new GitHubSourceCodeRepo(gitUsername, client, githubTokenContent, gitRepository);
         } else if ("bitbucket.org".equals(source)) {
             if (bitbucketTokenContent != null) {
                 repo = new BitBucketSourceCodeRepo(gitUsername, client, bitbucketTokenContent, gitRepository);
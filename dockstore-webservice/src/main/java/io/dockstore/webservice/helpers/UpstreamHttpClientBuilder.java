@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.httpclient.InstrumentedHttpClientConnectionManager;
+
+import io.dockstore.webservice.UpstreamHttpClientConfiguration;
+import io.dropwizard.client.HttpClientBuilder;
+import io.dropwizard.setup.Environment;
+
+/**
+ * Builds the client for calls to image registries and source code repositories. On top of the stock Dropwizard client
+ * it gives each configured https host its own share of the connection pool, with gauges for it, and retries idempotent
+ * requests after I/O errors with an exponential backoff.
+ */
+public class UpstreamHttpClientBuilder extends HttpClientBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UpstreamHttpClientBuilder.class);
+
+    private static final int HTTPS_PORT = 443;
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final MetricRegistry metrics;
+    private final UpstreamHttpClientConfiguration configuration;
+    private String name;
+
+    public UpstreamHttpClientBuilder(Environment environment, UpstreamHttpClientConfiguration configuration) {
+        super(environment);
+        this.metrics = environment.metrics();
+        this.configuration = configuration;
+        using(configuration);
+        using(new BackoffRetryHandler(configuration.getRetries(), configuration.getRetryBackoff().toMilliseconds()));
+    }
+
+    @Override
+    public CloseableHttpClient build(String clientName) {
+        this.name = clientName;
+        return super.build(clientName);
+    }
+
+    @Override
+    protected InstrumentedHttpClientConnectionManager configureConnectionManager(InstrumentedHttpClientConnectionManager manager) {
+        super.configureConnectionManager(manager);
+        for (Map.Entry<String, Integer> host : configuration.getHosts().entrySet()) {
+            final HttpRoute route = new HttpRoute(new HttpHost(host.getKey(), HTTPS_PORT, "https"));
+            manager.setMaxPerRoute(route, host.getValue());
+            registerGauge(host.getKey(), "leased-connections", () -> manager.getStats(route).getLeased());
+            registerGauge(host.getKey(), "available-connections", () -> manager.getStats(route).getAvailable());
+            registerGauge(host.getKey(), "pending-connections", () -> manager.getStats(route).getPending());
+        }
+        return manager;
+    }
+
+    private void registerGauge(String host, String metric, Gauge<Integer> gauge) {
+        metrics.register(MetricRegistry.name(HttpClientConnectionManager.class, name, host, metric), gauge);
+    }
+
+    private static long backoff(long baseMillis, int executionCount) {
+        return baseMillis << Math.min(executionCount - 1, MAX_BACKOFF_SHIFT);
+    }
+
+    /**
+     * The stock handler (which only retries idempotent requests, and not after timeouts, unknown hosts or TLS errors),
+     * with a pause before each retry.
+     */
+    private static final class BackoffRetryHandler extends DefaultHttpRequestRetryHandler {
+        private final long backoffMillis;
+
+        BackoffRetryHandler(int retries, long backoffMillis) {
+            super(retries, false);
+            this.backoffMillis = backoffMillis;
+        }
+
+        @Override
+        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+            if (!super.retryRequest(exception, executionCount, context)) {
+                return false;
+            }
+            LOG.debug("Retrying {} after {}", HttpClientContext.adapt(context).getTargetHost(), exception.toString());
+            try {
+                Thread.sleep(backoff(backoffMillis, executionCount));
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.lifecycle.Managed;
+
+/**
+ * Tells every webservice node sharing the database to drop what it has cached about a token or a container, using Postgres
+ * LISTEN/NOTIFY.
+ *
+ * Notifications are sent with {@link #publish(Session, String, String)} in the transaction that made the change, and Postgres only
+ * delivers them if it commits. Each node listens on its own connection and hands what it receives from other nodes to the handler
+ * registered for its kind. Nodes drop their own caches themselves, so they skip their own notifications.
+ */
+public class ClusterInvalidation implements Managed {
+    public static final String CHANNEL = "dockstore_invalidation";
+    public static final String TOKEN = "token";
+    public static final String CONTAINER = "container";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterInvalidation.class);
+    // identifies this node in the notifications it sends
+    private static final String NODE = UUID.randomUUID().toString();
+    private static final long POLL_MILLIS = 500;
+    private static final long RECONNECT_SECONDS = 10;
+    private static final int PAYLOAD_PARTS = 3;
+
+    private final DataSourceFactory database;
+    private final Map<String, Consumer<String>> handlers = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private Thread listener;
+
+    /**
+     * @param database
+     *            where to listen, on a connection of its own outside the pool
+     */
+    public ClusterInvalidation(DataSourceFactory database) {
+        this.database = database;
+    }
+
+    /**
+     * Send a notification to the other nodes when the current transaction commits
+     *
+     * @param session
+     *            the session of the transaction that made the change
+     * @param kind
+     *            what changed, e.g. {@link #TOKEN}
+     * @param key
+     *            which one changed, must not contain anything secret since it is sent as is
+     */
+    public static void publish(Session session, String kind, String key) {
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+                statement.setString(1, CHANNEL);
+                statement.setString(2, NODE + ' ' + kind + ' ' + key);
+                statement.execute();
+            }
+        });
+    }
+
+    /**
+     * @param kind
+     * @param handler
+     *            called with the key of each notification of this kind sent by another node, on the listening thread
+     */
+    public void on(String kind, Consumer<String> handler) {
+        handlers.put(kind, handler);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listener = new Thread(this::listen, "cluster-invalidation");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        listener.interrupt();
+        listener.join(TimeUnit.SECONDS.toMillis(RECONNECT_SECONDS));
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = connect(database)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                LOG.info("Listening for cache invalidations from other nodes");
+                final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    // the driver only picks up notifications when it talks to the server
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SELECT 1");
+                    }
+                    final PGNotification[] notifications = pgConnection.getNotifications();
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            handle(notification.getParameter());
+                        }
+                    }
+                    Thread.sleep(POLL_MILLIS);
+                }
+            } catch (SQLException ex) {
+                LOG.warn("Lost the connection listening for cache invalidations, other nodes' changes may be cached until it is back", ex);
+                pause();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return a connection of its own to the database, outside the pool
+     */
+    static Connection connect(DataSourceFactory database) throws SQLException {
+        final Properties properties = new Properties();
+        properties.setProperty("user", database.getUser());
+        if (database.getPassword() != null) {
+            properties.setProperty("password", database.getPassword());
+        }
+        final Connection connection = DriverManager.getConnection(database.getUrl(), properties);
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private void handle(String payload) {
+        // node, kind and key
+        final String[] parts = payload.split(" ", PAYLOAD_PARTS);
+        if (parts.length < PAYLOAD_PARTS || NODE.equals(parts[0])) {
+            return;
+        }
+        final Consumer<String> handler = handlers.get(parts[1]);
+        if (handler == null) {
+            return;
+        }
+        try {
+            handler.accept(parts[2]);
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not invalidate {} {}", parts[1], parts[2], ex);
+        }
+    }
+
+    private void pause() {
+        try {
+            TimeUnit.SECONDS.sleep(RECONNECT_SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.dropwizard.db.DataSourceFactory;
+
+/**
+ * Picks one webservice node, among those sharing the database, to do something only one of them should, like the scheduled refreshes.
+ * The node that takes a Postgres advisory lock leads for as long as it keeps the connection that holds it. If that node goes away, so
+ * does its connection and the lock, and the next node to ask takes over.
+ */
+public class ClusterLeader {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterLeader.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSourceFactory database;
+    private final long lockKey;
+    // holds the lock while this node leads
+    private Connection connection;
+
+    /**
+     * @param database
+     *            where to take the lock, on a connection of its own outside the pool
+     * @param lockKey
+     *            the advisory lock, one per kind of work
+     */
+    public ClusterLeader(DataSourceFactory database, long lockKey) {
+        this.database = database;
+        this.lockKey = lockKey;
+    }
+
+    /**
+     * @return true if this node leads, taking the lead if no other node has it
+     */
+    public synchronized boolean isLeader() {
+        try {
+            if (connection != null && connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                return true;
+            }
+            release();
+            final Connection candidate = ClusterInvalidation.connect(database);
+            boolean leads = false;
+            try (PreparedStatement statement = candidate.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                statement.setLong(1, lockKey);
+                try (ResultSet result = statement.executeQuery()) {
+                    leads = result.next() && result.getBoolean(1);
+                }
+            } finally {
+                if (!leads) {
+                    // another node has the lock or asking failed, either way the connection is of no use
+                    candidate.close();
+                }
+            }
+            if (leads) {
+                LOG.info("This node now leads for lock {}", lockKey);
+                connection = candidate;
+            }
+            return leads;
+        } catch (SQLException ex) {
+            LOG.warn("Could not find out whether this node leads for lock {}", lockKey, ex);
+            release();
+            return false;
+        }
+    }
+
+    /**
+     * Give up the lead, if this node has it
+     */
+    public synchronized void release() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                LOG.warn("Could not close the connection holding lock {}", lockKey, ex);
+            }
+            connection = null;
+        }
+    }
+}
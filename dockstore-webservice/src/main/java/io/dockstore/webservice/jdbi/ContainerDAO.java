@@ -16,13 +16,31 @@
  */
 package io.dockstore.webservice.jdbi;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Cache;
+import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.type.LongType;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 
+import io.dockstore.webservice.api.ContainerSummary;
 import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.ContainerMode;
+import io.dockstore.webservice.core.Tag;
 import io.dropwizard.hibernate.AbstractDAO;
 
 /**
@@ -30,8 +48,19 @@ import io.dropwizard.hibernate.AbstractDAO;
  * @author xliu
  */
 public class ContainerDAO extends AbstractDAO<Container> {
+    /**
+     * Query cache region for the public listings of registered containers
+     */
+    public static final String REGISTERED_QUERY_REGION = "io.dockstore.webservice.core.Container.registered";
+
+    // Postgres notifications carry at most 8000 bytes
+    private static final int MAX_INVALIDATION_TAGS_LENGTH = 7000;
+
+    private final SessionFactory factory;
+
     public ContainerDAO(SessionFactory factory) {
         super(factory);
+        this.factory = factory;
     }
 
     public Container findById(Long id) {
@@ -49,7 +78,7 @@ public class ContainerDAO extends AbstractDAO<Container> {
     }
 
     public Container findRegisteredById(long id) {
-        return uniqueResult(namedQuery("io.dockstore.webservice.core.Container.findRegisteredById").setParameter("id", id));
+        return uniqueResult(registered(namedQuery("io.dockstore.webservice.core.Container.findRegisteredById")).setParameter("id", id));
     }
 
     public List<Container> findAll() {
@@ -57,12 +86,163 @@ public class ContainerDAO extends AbstractDAO<Container> {
     }
 
     public List<Container> findAllRegistered() {
-        return list(namedQuery("io.dockstore.webservice.core.Container.findAllRegistered"));
+        return list(registered(namedQuery("io.dockstore.webservice.core.Container.findAllRegistered")));
+    }
+
+    /**
+     * Full-text search over registered containers, best matches first. See {@link ContainerSearchIndex} for what is searched.
+     *
+     * @param text
+     *            words to look for, each matching the start of a word. With no words all registered containers are returned, by id
+     * @param offset
+     *            number of results to skip
+     * @param limit
+     *            maximum number of results, null for all of them
+     * @return matching containers, best first
+     */
+    public List<Container> search(String text, long offset, Integer limit) {
+        return findByIds(searchIds(text, offset, limit));
+    }
+
+    /**
+     * @see #search(String, long, Integer)
+     */
+    public List<ContainerSummary> searchSummaries(String text, long offset, Integer limit) {
+        return findSummariesByIds(searchIds(text, offset, limit));
+    }
+
+    /**
+     * @param ids
+     * @return the containers with these ids, in the same order, leaving out ids that no longer exist
+     */
+    public List<Container> findByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return inOrder(ids, list(namedQuery("io.dockstore.webservice.core.Container.findByIds").setParameterList("ids", ids)),
+                Container::getId);
+    }
+
+    /**
+     * @see #findByIds(List)
+     */
+    @SuppressWarnings("unchecked")
+    public List<ContainerSummary> findSummariesByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return inOrder(ids, namedQuery("io.dockstore.webservice.core.Container.findSummariesByIds").setParameterList("ids", ids).list(),
+                ContainerSummary::getId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Long> searchIds(String text, long offset, Integer limit) {
+        final String query = ContainerSearchIndex.toPrefixQuery(text);
+        final SQLQuery sqlQuery;
+        if (query.isEmpty()) {
+            sqlQuery = currentSession().createSQLQuery("SELECT c.id FROM container c WHERE c.isRegistered = true ORDER BY c.id");
+        } else {
+            sqlQuery = currentSession().createSQLQuery(
+                    "SELECT c.id FROM container c, to_tsquery('simple', :query) q WHERE c.searchvector @@ q AND c.isRegistered = true "
+                            + "ORDER BY ts_rank(c.searchvector, q) DESC, c.id");
+            sqlQuery.setParameter("query", query);
+        }
+        sqlQuery.addScalar("id", LongType.INSTANCE).setFirstResult((int) offset);
+        if (limit != null) {
+            sqlQuery.setMaxResults(limit);
+        }
+        return sqlQuery.list();
+    }
+
+    private static <T> List<T> inOrder(List<Long> ids, List<T> items, ToLongFunction<T> id) {
+        final Map<Long, T> byId = new HashMap<>();
+        for (T item : items) {
+            byId.put(id.applyAsLong(item), item);
+        }
+        final List<T> ordered = new ArrayList<>();
+        for (Long itemId : ids) {
+            final T item = byId.get(itemId);
+            if (item != null) {
+                ordered.add(item);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Keyset pagination: containers are ordered by id and each page starts after the last id of the previous one, so a page costs the
+     * same no matter how deep into the list it is.
+     *
+     * @param cursor
+     *            id of the last container of the previous page, 0 for the first page
+     * @param limit
+     *            maximum number of containers to return
+     * @return the page of containers, ordered by id
+     */
+    public List<Container> findAll(long cursor, int limit) {
+        return list(namedQuery("io.dockstore.webservice.core.Container.findAllAfter").setParameter("cursor", cursor).setMaxResults(limit));
+    }
+
+    /**
+     * @see #findAll(long, int)
+     */
+    public List<Container> findAllRegistered(long cursor, int limit) {
+        return list(registered(namedQuery("io.dockstore.webservice.core.Container.findAllRegisteredAfter")).setParameter("cursor", cursor)
+                .setMaxResults(limit));
+    }
+
+    /**
+     * @see #findAll(long, int)
+     */
+    public List<Container> findByUserId(long userId, long cursor, int limit) {
+        return list(namedQuery("io.dockstore.webservice.core.Container.findByUserIdAfter").setParameter("userId", userId)
+                .setParameter("cursor", cursor).setMaxResults(limit));
     }
 
-    public List<Container> searchPattern(String pattern) {
-        pattern = '%' + pattern + '%';
-        return list(namedQuery("io.dockstore.webservice.core.Container.searchPattern").setParameter("pattern", pattern));
+    /**
+     * Summaries of registered containers, read with a constructor expression so that no entity (or its tags) is loaded.
+     *
+     * @param cursor
+     *            id of the last container of the previous page, 0 for the first page
+     * @param limit
+     *            maximum number of summaries to return, null for all of them
+     * @return summaries ordered by id
+     */
+    public List<ContainerSummary> findRegisteredSummaries(long cursor, Integer limit) {
+        return summaries(namedQuery("io.dockstore.webservice.core.Container.findRegisteredSummaries"), cursor, limit);
+    }
+
+    /**
+     * @see #findRegisteredSummaries(long, Integer)
+     */
+    public List<ContainerSummary> findSummariesByUserId(long userId, long cursor, Integer limit) {
+        return summaries(namedQuery("io.dockstore.webservice.core.Container.findSummariesByUserId").setParameter("userId", userId), cursor,
+                limit);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ContainerSummary> summaries(Query query, long cursor, Integer limit) {
+        query.setParameter("cursor", cursor);
+        if (limit != null) {
+            query.setMaxResults(limit);
+        }
+        return query.list();
+    }
+
+    /**
+     * Registered containers that have not been refreshed since a given time, least recently refreshed first
+     *
+     * @param before
+     * @return container id to the id of a user whose tokens can refresh it
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, Long> findStaleRegistered(Date before) {
+        final Map<Long, Long> owners = new LinkedHashMap<>();
+        for (Object[] row : (List<Object[]>) namedQuery("io.dockstore.webservice.core.Container.findStaleRegistered")
+                .setParameter("before", before).list()) {
+            owners.put((Long) row[0], (Long) row[1]);
+        }
+        return owners;
     }
 
     public List<Container> findByPath(String path) {
@@ -74,16 +254,139 @@ public class ContainerDAO extends AbstractDAO<Container> {
                 "toolname", tool));
     }
 
+    public List<Container> findByGitUrl(String gitUrl) {
+        return list(namedQuery("io.dockstore.webservice.core.Container.findByGitUrl").setParameter("gitUrl", gitUrl));
+    }
+
     public List<Container> findByMode(final ContainerMode mode) {
         return list(namedQuery("io.dockstore.webservice.core.Container.findByMode").setParameter("mode", mode));
     }
 
     public List<Container> findRegisteredByPath(String path) {
-        return list(namedQuery("io.dockstore.webservice.core.Container.findRegisteredByPath").setParameter("path", path));
+        return list(registered(namedQuery("io.dockstore.webservice.core.Container.findRegisteredByPath")).setParameter("path", path));
     }
 
     public Container findRegisteredByToolPath(String path, String tool) {
-        return uniqueResult(namedQuery("io.dockstore.webservice.core.Container.findRegisteredByToolPath").setParameter("path", path)
-                .setParameter("toolname", tool));
+        return uniqueResult(registered(namedQuery("io.dockstore.webservice.core.Container.findRegisteredByToolPath"))
+                .setParameter("path", path).setParameter("toolname", tool));
+    }
+
+    /**
+     * Cache the results of a query for registered containers. Hibernate drops them whenever the container table is written to, and the
+     * containers themselves come from the entity cache.
+     */
+    private static Query registered(Query query) {
+        return query.setCacheable(true).setCacheRegion(REGISTERED_QUERY_REGION);
+    }
+
+    /**
+     * Drop containers, with their tags, labels and files, from the second-level cache once the current transaction is over, along with
+     * the cached listings of registered containers. Hibernate evicts what it writes itself, this also covers what it cannot see, such as
+     * files deleted in SQL by {@link FileDAO#deleteUnused}, and responses cached at the current {@link RegistryVersion} are rebuilt.
+     * Other nodes are told to do the same through {@link ClusterInvalidation}.
+     *
+     * @param containers
+     *            containers that have been or are about to be changed
+     */
+    public void evictOnCommit(Iterable<Container> containers) {
+        final Map<Long, List<Long>> tagIdsByContainer = new HashMap<>();
+        for (Container container : containers) {
+            final List<Long> tagIds = new ArrayList<>();
+            for (Tag tag : container.getTags()) {
+                tagIds.add(tag.getId());
+            }
+            tagIdsByContainer.put(container.getId(), tagIds);
+            ClusterInvalidation.publish(currentSession(), ClusterInvalidation.CONTAINER, toInvalidationKey(container.getId(), tagIds));
+        }
+        RegistryVersion.writtenInSql(currentSession());
+        currentSession().getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // evicting now would let other sessions cache the old state again before the commit
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                for (Map.Entry<Long, List<Long>> container : tagIdsByContainer.entrySet()) {
+                    evict(container.getKey(), container.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Undo something done outside the database, such as adding a notification upstream, if the current transaction does not commit
+     *
+     * @param undo
+     */
+    public void onRollback(Runnable undo) {
+        currentSession().getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // only the outcome matters
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    undo.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop a container, with its tags, labels and files, from the second-level cache right away, along with the cached listings of
+     * registered containers
+     *
+     * @param containerId
+     * @param tagIds
+     *            ids of the container's tags
+     */
+    public void evict(long containerId, Iterable<Long> tagIds) {
+        final Cache cache = factory.getCache();
+        cache.evictEntity(Container.class, containerId);
+        cache.evictCollection(Container.class.getName() + ".tags", containerId);
+        cache.evictCollection(Container.class.getName() + ".labels", containerId);
+        if (tagIds == null) {
+            cache.evictEntityRegion(Tag.class);
+            cache.evictCollectionRegion(Tag.class.getName() + ".sourceFiles");
+        } else {
+            for (Long id : tagIds) {
+                cache.evictEntity(Tag.class, id);
+                cache.evictCollection(Tag.class.getName() + ".sourceFiles", id);
+            }
+        }
+        cache.evictQueryRegion(REGISTERED_QUERY_REGION);
+    }
+
+    /**
+     * Evict what another node sent through {@link ClusterInvalidation}
+     *
+     * @param key
+     *            as made by {@link #toInvalidationKey(long, List)}
+     * @return the id of the container
+     */
+    public long evict(String key) {
+        final String[] parts = key.split(":", 2);
+        final long containerId = Long.parseLong(parts[0]);
+        List<Long> tagIds = null;
+        if (parts.length > 1) {
+            tagIds = new ArrayList<>();
+            for (String tagId : Splitter.on(',').omitEmptyStrings().split(parts[1])) {
+                tagIds.add(Long.parseLong(tagId));
+            }
+        }
+        evict(containerId, tagIds);
+        return containerId;
+    }
+
+    /**
+     * @return "containerId:tagId,tagId..." or just the container id when there are too many tags to fit in a notification, in which case
+     *         all tags are evicted
+     */
+    private static String toInvalidationKey(long containerId, List<Long> tagIds) {
+        final String tags = Joiner.on(',').join(tagIds);
+        return tags.length() > MAX_INVALIDATION_TAGS_LENGTH ? String.valueOf(containerId) : containerId + ":" + tags;
     }
 }
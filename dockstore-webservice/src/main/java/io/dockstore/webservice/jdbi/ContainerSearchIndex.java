@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PostgreSQL full-text search over containers.
+ *
+ * Each container gets a tsvector column (searchvector) with its path, namespace, name and toolname (weight A), author and labels (B),
+ * description and registry (C). Triggers keep it current when a container, its labels or a label's value change, and a GIN index keeps
+ * lookups fast however many containers there are. None of this is mapped by Hibernate, so it is created here at startup, after the schema.
+ *
+ * Words are matched as prefixes, so "bam" finds "bamstats".
+ */
+public class ContainerSearchIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerSearchIndex.class);
+
+    // split on anything that is not a letter or digit, so that paths like quay.io/org/dockstore-tool-bamstats become words
+    private static final String WORDS = "regexp_replace(%s, ''[^[:alnum:]]+'', '' '', ''g'')";
+    private static final String LABELS = "(SELECT string_agg(l.value, '' '') FROM containerlabel cl JOIN label l ON l.id = cl.labelid "
+            + "WHERE cl.containerid = NEW.id)";
+
+    private static final String CONTAINER_FUNCTION = "CREATE OR REPLACE FUNCTION container_searchvector_update() RETURNS trigger AS '"
+            + "BEGIN NEW.searchvector := "
+            + "setweight(to_tsvector(''simple'', " + String.format(WORDS, "coalesce(NEW.path, '''') || '' '' || coalesce(NEW.namespace, '''') "
+            + "|| '' '' || coalesce(NEW.name, '''') || '' '' || coalesce(NEW.toolname, '''')") + "), ''A'') || "
+            + "setweight(to_tsvector(''simple'', " + String.format(WORDS, "coalesce(NEW.author, '''') || '' '' || coalesce(" + LABELS
+            + ", '''')") + "), ''B'') || "
+            + "setweight(to_tsvector(''simple'', " + String.format(WORDS, "coalesce(NEW.description, '''') || '' '' || coalesce(NEW.registry, '''')")
+            + "), ''C''); "
+            + "RETURN NEW; END' LANGUAGE plpgsql";
+
+    // touching the container runs its trigger, which reads the labels again
+    private static final String CONTAINERLABEL_FUNCTION = "CREATE OR REPLACE FUNCTION containerlabel_searchvector_update() RETURNS trigger AS '"
+            + "BEGIN IF TG_OP = ''DELETE'' THEN UPDATE container SET searchvector = NULL WHERE id = OLD.containerid; RETURN OLD; END IF; "
+            + "UPDATE container SET searchvector = NULL WHERE id = NEW.containerid; RETURN NEW; END' LANGUAGE plpgsql";
+
+    private static final String LABEL_FUNCTION = "CREATE OR REPLACE FUNCTION label_searchvector_update() RETURNS trigger AS '"
+            + "BEGIN UPDATE container SET searchvector = NULL WHERE id IN (SELECT containerid FROM containerlabel WHERE labelid = NEW.id); "
+            + "RETURN NEW; END' LANGUAGE plpgsql";
+
+    private static final String[] TRIGGERS = {
+            "DROP TRIGGER IF EXISTS container_searchvector ON container",
+            "CREATE TRIGGER container_searchvector BEFORE INSERT OR UPDATE ON container "
+                    + "FOR EACH ROW EXECUTE PROCEDURE container_searchvector_update()",
+            "DROP TRIGGER IF EXISTS containerlabel_searchvector ON containerlabel",
+            "CREATE TRIGGER containerlabel_searchvector AFTER INSERT OR UPDATE OR DELETE ON containerlabel "
+                    + "FOR EACH ROW EXECUTE PROCEDURE containerlabel_searchvector_update()",
+            "DROP TRIGGER IF EXISTS label_searchvector ON label",
+            "CREATE TRIGGER label_searchvector AFTER UPDATE ON label FOR EACH ROW EXECUTE PROCEDURE label_searchvector_update()" };
+
+    private final SessionFactory sessionFactory;
+
+    public ContainerSearchIndex(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Create the search column, triggers and index if they are missing. Needs a session bound to the current thread, see
+     * {@link UnitOfWorkRunner}.
+     */
+    public void install() {
+        sessionFactory.getCurrentSession().doWork(this::install);
+    }
+
+    private void install(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            final boolean newColumn = !exists(connection,
+                    "SELECT 1 FROM information_schema.columns WHERE table_name = 'container' AND column_name = 'searchvector'");
+            if (newColumn) {
+                LOG.info("Adding full-text search column to container");
+                statement.execute("ALTER TABLE container ADD COLUMN searchvector tsvector");
+            }
+            statement.execute(CONTAINER_FUNCTION);
+            statement.execute(CONTAINERLABEL_FUNCTION);
+            statement.execute(LABEL_FUNCTION);
+            for (String trigger : TRIGGERS) {
+                statement.execute(trigger);
+            }
+            if (!exists(connection, "SELECT 1 FROM pg_indexes WHERE tablename = 'container' AND indexname = 'container_searchvector_idx'")) {
+                LOG.info("Creating full-text search index on container");
+                statement.execute("CREATE INDEX container_searchvector_idx ON container USING gin(searchvector)");
+            }
+            if (newColumn) {
+                // fill in containers that were there before the column
+                statement.execute("UPDATE container SET searchvector = NULL");
+            }
+        }
+    }
+
+    private static boolean exists(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql); ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next();
+        }
+    }
+
+    /**
+     * Turn what a user typed into a tsquery where every word has to match the start of an indexed word.
+     *
+     * @param text
+     *            search text, may be null
+     * @return the tsquery, or an empty string if there are no words in the text
+     */
+    public static String toPrefixQuery(String text) {
+        if (text == null) {
+            return "";
+        }
+        final List<String> terms = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ENGLISH).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                terms.add(word + ":*");
+            }
+        }
+        return String.join(" & ", terms);
+    }
+}
@@ -20,11 +20,23 @@ import io.dockstore.webservice.core.SourceFile;
 import io.dropwizard.hibernate.AbstractDAO;
 import org.hibernate.SessionFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
 /**
  *
  * @author xliu
  */
 public class FileDAO extends AbstractDAO<SourceFile> {
+    // first key of the advisory locks taken on file contents, the second comes from the checksum
+    private static final int CONTENT_LOCKS = 0x5f11e;
+    private static final int HEX_CHARS_PER_KEY = 8;
+    private static final int HEX_RADIX = 16;
+
     public FileDAO(SessionFactory sessionFactory) {
         super(sessionFactory);
     }
@@ -36,4 +48,96 @@ public class FileDAO extends AbstractDAO<SourceFile> {
     public long create(SourceFile file) {
         return persist(file).getId();
     }
+
+    /**
+     * Save several files at once. Ids come from a pooled sequence, so the inserts are only sent when the session flushes, as JDBC batches.
+     *
+     * @param files
+     */
+    public void createAll(Collection<SourceFile> files) {
+        for (SourceFile file : files) {
+            persist(file);
+        }
+    }
+
+    /**
+     * @param checksums
+     *            SHA-256s of file contents
+     * @return stored files with any of those checksums
+     */
+    public List<SourceFile> findByChecksums(Collection<String> checksums) {
+        if (checksums.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return list(namedQuery("io.dockstore.webservice.core.SourceFile.findByChecksums").setParameterList("checksums", checksums));
+    }
+
+    /**
+     * Lock the contents with these checksums until the transaction ends, before looking them up to link them to tags. Another refresh
+     * storing the same content then waits and finds the stored file instead of running into the unique constraint, and
+     * {@link #deleteUnused} leaves the files alone. Locks are taken in order, so refreshes cannot deadlock on them.
+     *
+     * @param checksums
+     *            SHA-256s of file contents
+     */
+    public void lockContents(Collection<String> checksums) {
+        for (int key : lockKeys(checksums)) {
+            currentSession().createSQLQuery("SELECT 1 FROM pg_advisory_xact_lock(:space, :key)").setInteger("space", CONTENT_LOCKS)
+                    .setInteger("key", key).uniqueResult();
+        }
+    }
+
+    private static SortedSet<Integer> lockKeys(Collection<String> checksums) {
+        final SortedSet<Integer> keys = new TreeSet<>();
+        for (String checksum : checksums) {
+            if (checksum != null && checksum.length() >= HEX_CHARS_PER_KEY) {
+                keys.add((int) Long.parseLong(checksum.substring(0, HEX_CHARS_PER_KEY), HEX_RADIX));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Delete those of the given files that no tag refers to any more. Files are shared between tags, so they cannot simply be removed
+     * along with a tag. Files whose content another transaction has locked to link it (see {@link #lockContents}) are kept, the next
+     * delete of that content gets them.
+     *
+     * @param files
+     *            files that were unlinked from a tag
+     * @return number of files deleted
+     */
+    public int deleteUnused(Collection<SourceFile> files) {
+        final List<Long> ids = new ArrayList<>();
+        for (SourceFile file : files) {
+            if (file.getId() != 0 && tryLockContent(file.getSha256())) {
+                ids.add(file.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        // the join table is only written on flush and a native query does not trigger one
+        currentSession().flush();
+        final int deleted = currentSession()
+                .createSQLQuery("DELETE FROM sourcefile f WHERE f.id IN (:ids) "
+                        + "AND NOT EXISTS (SELECT 1 FROM tagsourcefile t WHERE t.sourcefileid = f.id)")
+                .addSynchronizedEntityClass(SourceFile.class).setParameterList("ids", ids).executeUpdate();
+        if (deleted > 0) {
+            RegistryVersion.writtenInSql(currentSession());
+        }
+        return deleted;
+    }
+
+    /**
+     * @return true if the content is now locked by this transaction, false if another one holds the lock
+     */
+    private boolean tryLockContent(String checksum) {
+        final SortedSet<Integer> keys = lockKeys(Collections.singletonList(checksum));
+        if (keys.isEmpty()) {
+            return true;
+        }
+        final Object locked = currentSession().createSQLQuery("SELECT pg_try_advisory_xact_lock(:space, :key)")
+                .setInteger("space", CONTENT_LOCKS).setInteger("key", keys.first()).uniqueResult();
+        return Boolean.TRUE.equals(locked);
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCollectionRecreateEvent;
+import org.hibernate.event.spi.PostCollectionRecreateEventListener;
+import org.hibernate.event.spi.PostCollectionRemoveEvent;
+import org.hibernate.event.spi.PostCollectionRemoveEventListener;
+import org.hibernate.event.spi.PostCollectionUpdateEvent;
+import org.hibernate.event.spi.PostCollectionUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * A counter that goes up every time a transaction that wrote anything through Hibernate commits, so that anything built from the
+ * database can tell whether it may be out of date by comparing the version it was built at.
+ *
+ * Only writes made by this webservice are seen. Writes made in SQL are only counted when their DAO calls {@link #writtenInSql}.
+ */
+public class RegistryVersion implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener,
+        PostCollectionRecreateEventListener, PostCollectionUpdateEventListener, PostCollectionRemoveEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * @param sessionFactory
+     * @return a version counter listening to every write made through the session factory
+     */
+    public static RegistryVersion install(SessionFactory sessionFactory) {
+        final RegistryVersion registryVersion = new RegistryVersion();
+        final EventListenerRegistry registry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry().getService(
+                EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, registryVersion);
+        registry.appendListeners(EventType.POST_UPDATE, registryVersion);
+        registry.appendListeners(EventType.POST_DELETE, registryVersion);
+        registry.appendListeners(EventType.POST_COLLECTION_RECREATE, registryVersion);
+        registry.appendListeners(EventType.POST_COLLECTION_UPDATE, registryVersion);
+        registry.appendListeners(EventType.POST_COLLECTION_REMOVE, registryVersion);
+        return registryVersion;
+    }
+
+    /**
+     * Count a write made in SQL in the current transaction, which Hibernate has no event for, once the transaction commits
+     *
+     * @param session
+     *            the session of a factory a version counter was installed on, otherwise nothing is counted
+     */
+    public static void writtenInSql(Session session) {
+        final EventListenerRegistry registry = ((SessionFactoryImplementor) session.getSessionFactory()).getServiceRegistry().getService(
+                EventListenerRegistry.class);
+        for (Object listener : registry.getEventListenerGroup(EventType.POST_INSERT).listeners()) {
+            if (listener instanceof RegistryVersion) {
+                ((RegistryVersion) listener).written((EventSource) session);
+            }
+        }
+    }
+
+    /**
+     * @return the current version
+     */
+    public long get() {
+        return version.get();
+    }
+
+    /**
+     * Count a write Hibernate did not see
+     */
+    public void increment() {
+        version.incrementAndGet();
+    }
+
+    private void written(EventSource session) {
+        // not until the commit, otherwise a reader could build from the old data and label it with the new version
+        session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, completed) -> {
+            if (success) {
+                increment();
+            }
+        });
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        written(event.getSession());
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        written(event.getSession());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        written(event.getSession());
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    @Override
+    public void onPostRecreateCollection(PostCollectionRecreateEvent event) {
+        written(event.getSession());
+    }
+
+    @Override
+    public void onPostUpdateCollection(PostCollectionUpdateEvent event) {
+        written(event.getSession());
+    }
+
+    @Override
+    public void onPostRemoveCollection(PostCollectionRemoveEvent event) {
+        written(event.getSession());
+    }
+}
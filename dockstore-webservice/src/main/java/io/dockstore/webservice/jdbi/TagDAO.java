@@ -16,6 +16,8 @@
  */
 package io.dockstore.webservice.jdbi;
 
+import java.util.Collection;
+
 import org.hibernate.SessionFactory;
 
 import io.dockstore.webservice.core.Tag;
@@ -38,4 +40,15 @@ public class TagDAO extends AbstractDAO<Tag> {
     public long create(Tag token) {
         return persist(token).getId();
     }
+
+    /**
+     * Save several tags at once. Ids come from a pooled sequence, so the inserts are only sent when the session flushes, as JDBC batches.
+     *
+     * @param tags
+     */
+    public void createAll(Collection<Tag> tags) {
+        for (Tag tag : tags) {
+            persist(tag);
+        }
+    }
 }
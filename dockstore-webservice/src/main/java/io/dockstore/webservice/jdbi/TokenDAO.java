@@ -16,10 +16,14 @@
  */
 package io.dockstore.webservice.jdbi;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.List;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.dockstore.webservice.core.Token;
 import io.dropwizard.hibernate.AbstractDAO;
@@ -29,6 +33,8 @@ import io.dropwizard.hibernate.AbstractDAO;
  * @author dyuen
  */
 public class TokenDAO extends AbstractDAO<Token> {
+    private static final Logger LOG = LoggerFactory.getLogger(TokenDAO.class);
+
     public TokenDAO(SessionFactory factory) {
         super(factory);
     }
@@ -45,10 +51,16 @@ public class TokenDAO extends AbstractDAO<Token> {
         return persist(token).getId();
     }
 
+    /**
+     * Delete a token, and have other nodes drop it from their authentication caches once the deletion commits
+     *
+     * @param token
+     */
     public void delete(Token token) {
         Session session = currentSession();
         session.delete(token);
         session.flush();
+        ClusterInvalidation.publish(session, ClusterInvalidation.TOKEN, token.getContentHash());
     }
 
     public List<Token> findAll() {
@@ -79,7 +91,40 @@ public class TokenDAO extends AbstractDAO<Token> {
         return list(namedQuery("io.dockstore.webservice.core.Token.findBySource").setParameter("source", source));
     }
 
+    /**
+     * Look a token up by its content, through the index on the content hash. The content itself is compared in constant time.
+     *
+     * @param content
+     * @return the oldest token with this content, or null
+     */
     public Token findByContent(String content) {
-        return uniqueResult(namedQuery("io.dockstore.webservice.core.Token.findByContent").setParameter("content", content));
+        if (content == null) {
+            return null;
+        }
+        final byte[] given = content.getBytes(StandardCharsets.UTF_8);
+        final List<Token> tokens = list(namedQuery("io.dockstore.webservice.core.Token.findByContentHash").setParameter("contentHash",
+                Token.hash(content)));
+        for (Token token : tokens) {
+            if (token.getContent() != null && MessageDigest.isEqual(token.getContent().getBytes(StandardCharsets.UTF_8), given)) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fill in the content hash of tokens stored before there was one, so they can still be used to log in.
+     *
+     * @return the number of tokens updated
+     */
+    public int hashUnhashed() {
+        final List<Token> tokens = list(namedQuery("io.dockstore.webservice.core.Token.findUnhashed"));
+        for (Token token : tokens) {
+            token.setContent(token.getContent());
+        }
+        if (!tokens.isEmpty()) {
+            LOG.info("Hashed the content of {} tokens", tokens.size());
+        }
+        return tokens.size();
     }
 }
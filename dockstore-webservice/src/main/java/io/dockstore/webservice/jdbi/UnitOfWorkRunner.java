@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.jdbi;
+
+import java.util.function.Supplier;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.context.internal.ManagedSessionContext;
+
+/**
+ * Gives work outside of a request (background jobs) the same session and transaction that @UnitOfWork gives resource methods, so that
+ * the DAOs can be used from any thread.
+ */
+public class UnitOfWorkRunner {
+
+    private final SessionFactory sessionFactory;
+
+    public UnitOfWorkRunner(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Run work in a new session and transaction bound to the current thread. The transaction is committed if the work returns and rolled
+     * back if it throws.
+     *
+     * @param work
+     * @return whatever the work returns
+     */
+    public <T> T call(final Supplier<T> work) {
+        final Session session = sessionFactory.openSession();
+        try {
+            session.setDefaultReadOnly(false);
+            session.setCacheMode(CacheMode.NORMAL);
+            session.setFlushMode(FlushMode.AUTO);
+            ManagedSessionContext.bind(session);
+            final Transaction transaction = session.beginTransaction();
+            try {
+                final T result = work.get();
+                transaction.commit();
+                return result;
+            } catch (RuntimeException | Error ex) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw ex;
+            }
+        } finally {
+            ManagedSessionContext.unbind(sessionFactory);
+            session.close();
+        }
+    }
+
+    public void run(final Runnable work) {
+        call(() -> {
+            work.run();
+            return null;
+        });
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+
+/**
+ * Remembers the ETag and Last-Modified of GET responses so the next request for the same URL (with the same credentials and Accept header)
+ * can be made conditional. When the server answers 304 Not Modified the remembered body is handed back instead of downloading it again.
+ * GitHub does not count 304s against the rate limit.
+ *
+ * Credentials are only kept as a hash in the cache key.
+ */
+public class ConditionalResponseCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ConditionalResponseCache.class);
+
+    // times a request is made again, after waiting its turn, once a rate limit turned it away
+    private static final int MAX_RATE_LIMITED_ATTEMPTS = 5;
+
+    private final Cache<String, CachedResponse> responses;
+    private final RateLimitGovernor rateLimits;
+
+    /**
+     * @param maxCharacters
+     *            upper bound on the total length of the bodies kept
+     * @param rateLimits
+     *            keeps requests under the rate limits of the servers they go to
+     */
+    public ConditionalResponseCache(long maxCharacters, RateLimitGovernor rateLimits) {
+        this.rateLimits = rateLimits;
+        this.responses = CacheBuilder.newBuilder().maximumWeight(maxCharacters)
+                .weigher((String key, CachedResponse value) -> key.length() + value.body.length()).build();
+    }
+
+    /**
+     * Execute a GET, conditionally if an earlier response for the same request is cached
+     *
+     * @param httpGet
+     * @param client
+     * @return the body of the response, the cached one if it has not changed
+     * @throws HttpResponseException
+     *             if the server answered with an error
+     * @throws CustomWebApplicationException
+     *             503 with a Retry-After if the rate limit of the server does not allow the request within the longest wait
+     * @throws IOException
+     */
+    public String execute(final HttpGet httpGet, final HttpClient client) throws IOException {
+        final String key = key(httpGet);
+        final CachedResponse cached = responses.getIfPresent(key);
+        if (cached != null) {
+            if (cached.etag != null) {
+                httpGet.setHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+            }
+            if (cached.lastModified != null) {
+                httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
+        }
+
+        for (int attempt = 1;; attempt++) {
+            rateLimits.acquire(httpGet);
+            try {
+                return client.execute(httpGet, (HttpResponse response) -> handle(httpGet, key, cached, response));
+            } catch (RateLimitedException ex) {
+                if (attempt >= MAX_RATE_LIMITED_ATTEMPTS) {
+                    throw new CustomWebApplicationException(httpGet.getURI().getHost() + " is still rate limiting after " + attempt
+                            + " attempts, please try again later.", HttpStatus.SC_SERVICE_UNAVAILABLE);
+                }
+            }
+        }
+    }
+
+    private String handle(HttpGet httpGet, String key, CachedResponse cached, HttpResponse response) throws IOException {
+        final int status = response.getStatusLine().getStatusCode();
+        final HttpEntity entity = response.getEntity();
+        if (rateLimits.record(httpGet, response)) {
+            EntityUtils.consume(entity);
+            throw new RateLimitedException();
+        }
+        if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            EntityUtils.consume(entity);
+            LOG.debug("Not modified, using cached response for {}", httpGet.getURI());
+            return cached.body;
+        }
+        if (status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            EntityUtils.consume(entity);
+            throw new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+        }
+
+        final String body = entity == null ? null : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+        final String etag = headerValue(response, HttpHeaders.ETAG);
+        final String lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
+        if (body != null && (etag != null || lastModified != null)) {
+            responses.put(key, new CachedResponse(etag, lastModified, body));
+        } else {
+            responses.invalidate(key);
+        }
+        return body;
+    }
+
+    /**
+     * @return number of responses currently cached
+     */
+    public long size() {
+        return responses.size();
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static String key(HttpGet httpGet) {
+        final StringBuilder key = new StringBuilder(httpGet.getURI().toString());
+        final Header accept = httpGet.getFirstHeader(HttpHeaders.ACCEPT);
+        if (accept != null) {
+            key.append('|').append(accept.getValue());
+        }
+        final Header authorization = httpGet.getFirstHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization != null) {
+            key.append('|').append(Hashing.sha256().hashString(authorization.getValue(), StandardCharsets.UTF_8));
+        }
+        return key.toString();
+    }
+
+    /**
+     * The server turned the request away for its rate limit, it will be made again once the limit allows
+     */
+    private static final class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private RateLimitedException() {
+            super("rate limited");
+        }
+    }
+
+    private static final class CachedResponse {
+        private final String etag;
+        private final String lastModified;
+        private final String body;
+
+        private CachedResponse(String etag, String lastModified, String body) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package io.dockstore.webservice.resources;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.ToLongFunction;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -34,7 +36,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
 
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
@@ -49,16 +58,22 @@ import com.google.gson.Gson;
 
 import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.Helper;
+import io.dockstore.webservice.api.ContainerSummary;
 import io.dockstore.webservice.api.RegisterRequest;
 import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.ContainerMode;
 import io.dockstore.webservice.core.Label;
+import io.dockstore.webservice.core.Registry;
 import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.SourceFile.FileType;
 import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.TokenType;
 import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.ContainerSearchEngine;
+import io.dockstore.webservice.helpers.OciRegistry;
+import io.dockstore.webservice.helpers.QuayImageRegistry;
+import io.dockstore.webservice.helpers.RefreshExecutor;
 import io.dockstore.webservice.jdbi.ContainerDAO;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.LabelDAO;
@@ -87,6 +102,10 @@ public class DockerRepoResource {
     private final LabelDAO labelDAO;
     private final FileDAO fileDAO;
     private final HttpClient client;
+    private final RefreshExecutor refreshExecutor;
+    private final ContainerSearchEngine searchEngine;
+    private final SerializedResponseCache responseCache;
+    private final String webhookUrl;
 
     private final String bitbucketClientID;
     private final String bitbucketClientSecret;
@@ -99,7 +118,8 @@ public class DockerRepoResource {
 
     @SuppressWarnings("checkstyle:parameternumber")
     public DockerRepoResource(ObjectMapper mapper, HttpClient client, UserDAO userDAO, TokenDAO tokenDAO, ContainerDAO containerDAO,
-            TagDAO tagDAO, LabelDAO labelDAO, FileDAO fileDAO, String bitbucketClientID, String bitbucketClientSecret) {
+            TagDAO tagDAO, LabelDAO labelDAO, FileDAO fileDAO, String bitbucketClientID, String bitbucketClientSecret,
+            RefreshExecutor refreshExecutor, ContainerSearchEngine searchEngine, SerializedResponseCache responseCache, String webhookUrl) {
         objectMapper = mapper;
         this.userDAO = userDAO;
         this.tokenDAO = tokenDAO;
@@ -107,6 +127,10 @@ public class DockerRepoResource {
         this.labelDAO = labelDAO;
         this.fileDAO = fileDAO;
         this.client = client;
+        this.refreshExecutor = refreshExecutor;
+        this.searchEngine = searchEngine;
+        this.responseCache = responseCache;
+        this.webhookUrl = webhookUrl;
 
         this.bitbucketClientID = bitbucketClientID;
         this.bitbucketClientSecret = bitbucketClientSecret;
@@ -135,7 +159,8 @@ public class DockerRepoResource {
                     Helper.refreshBitbucketToken(bitbucketToken, client, tokenDAO, bitbucketClientID, bitbucketClientSecret);
                 }
 
-                Helper.refresh(user.getId(), client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO);
+                searchEngine.updateOnCommit(Helper.refresh(user.getId(), client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO,
+                        fileDAO, refreshExecutor));
                 // containers.addAll(userDAO.findById(user.getId()).getContainers());
             } catch (WebApplicationException ex) {
                 LOG.info("Failed to refresh user {}", user.getId());
@@ -161,7 +186,8 @@ public class DockerRepoResource {
         Helper.checkUser(user, c);
 
         Container container = Helper.refreshContainer(containerId, authToken.getUserId(), client, objectMapper, userDAO, containerDAO,
-                tokenDAO, tagDAO, fileDAO);
+                tokenDAO, tagDAO, fileDAO, refreshExecutor);
+        searchEngine.updateOnCommit(container);
 
         return container;
     }
@@ -170,11 +196,17 @@ public class DockerRepoResource {
     @Timed
     @UnitOfWork
     @ApiOperation(value = "List all docker containers cached in database", notes = "List docker container repos currently known. Admin Only", response = Container.class, responseContainer = "List")
-    public List<Container> allContainers(@ApiParam(hidden = true) @Auth Token authToken) {
+    public Response allContainers(@ApiParam(hidden = true) @Auth Token authToken,
+            @ApiParam(value = "Maximum number of containers to return, pages are ordered by id") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Return containers after this id, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor) {
         User user = userDAO.findById(authToken.getUserId());
         Helper.checkUser(user);
 
-        return containerDAO.findAll();
+        if (!Pagination.isPaged(limit, cursor)) {
+            return Response.ok(containerDAO.findAll()).build();
+        }
+        final int pageSize = Pagination.limit(limit);
+        return Pagination.response(containerDAO.findAll(Pagination.cursor(cursor), pageSize), pageSize);
     }
 
     @GET
@@ -231,6 +263,8 @@ public class DockerRepoResource {
             }
             c.setLabels(labels);
         }
+        containerDAO.evictOnCommit(Collections.singletonList(c));
+        searchEngine.updateOnCommit(c);
 
         return c;
     }
@@ -253,14 +287,17 @@ public class DockerRepoResource {
 
     @GET
     @Timed
-    @UnitOfWork
     @Path("/registered/{containerId}")
     @ApiOperation(value = "Get a registered container", notes = "NO authentication", response = Container.class)
-    public Container getRegisteredContainer(@ApiParam(value = "Container ID", required = true) @PathParam("containerId") Long containerId) {
-        Container c = containerDAO.findRegisteredById(containerId);
-        Helper.checkContainer(c);
-
-        return c;
+    public Response getRegisteredContainer(@ApiParam(value = "Container ID", required = true) @PathParam("containerId") Long containerId,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        return responseCache.get(uriInfo, request, headers, () -> {
+            Container c = containerDAO.findRegisteredById(containerId);
+            Helper.checkContainer(c);
+
+            return Response.ok(c).build();
+        });
     }
 
     @POST
@@ -270,6 +307,17 @@ public class DockerRepoResource {
     @ApiOperation(value = "Register an image manually, along with tags", notes = "Register/publish an image manually.", response = Container.class)
     public Container registerManual(@ApiParam(hidden = true) @Auth Token authToken,
             @ApiParam(value = "Container to be registered", required = true) Container container) {
+        if (container.getRegistry() == Registry.PRIVATE_REGISTRY) {
+            final Optional<String> host = OciRegistry.getHost(container.getPath());
+            if (!host.isPresent()) {
+                throw new CustomWebApplicationException("A container on a private registry needs a path that starts with the registry host, "
+                        + "e.g. registry.example.org:5000/namespace/name.", HttpStatus.SC_BAD_REQUEST);
+            }
+            if (!OciRegistry.isAllowedHost(host.get())) {
+                throw new CustomWebApplicationException(host.get() + " is not one of the private registries containers can be on.",
+                        HttpStatus.SC_BAD_REQUEST);
+            }
+        }
         User user = userDAO.findById(authToken.getUserId());
         // populate user in container
         container.addUser(user);
@@ -301,6 +349,11 @@ public class DockerRepoResource {
 
         long id = containerDAO.create(container);
         Container created = containerDAO.findById(id);
+        if (created.getIsRegistered()) {
+            addPushNotification(created, user);
+        }
+        containerDAO.evictOnCommit(Collections.singletonList(created));
+        searchEngine.updateOnCommit(created);
 
         // Helper.refreshContainer(id, authToken.getUserId(), client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO);
         return created;
@@ -339,6 +392,9 @@ public class DockerRepoResource {
             // this if we check the cwl in the tags.
             // if (validTag && c.getValidTrigger() && !c.getGitUrl().isEmpty()) {
             if (validTag && !c.getGitUrl().isEmpty()) {
+                if (!c.getIsRegistered()) {
+                    addPushNotification(c, user);
+                }
                 c.setIsRegistered(true);
             } else {
                 throw new CustomWebApplicationException("Repository does not meet requirements to publish.", HttpStatus.SC_BAD_REQUEST);
@@ -349,29 +405,117 @@ public class DockerRepoResource {
 
         long id = containerDAO.create(c);
         c = containerDAO.findById(id);
+        containerDAO.evictOnCommit(Collections.singletonList(c));
+        searchEngine.updateOnCommit(c);
         return c;
     }
 
-    @GET
+    /**
+     * Give a container being published its webhook token and have Quay.io tell us about its new images, using the publishing user's
+     * Quay.io token. The notification is taken back if the publication does not commit.
+     */
+    private void addPushNotification(Container c, User user) {
+        if (c.getWebhookToken() == null) {
+            c.setWebhookToken(WebhookResource.newToken());
+        }
+        if (webhookUrl == null || c.getRegistry() != Registry.QUAY_IO) {
+            return;
+        }
+        final List<Token> quayTokens = tokenDAO.findQuayByUserId(user.getId());
+        if (!quayTokens.isEmpty()) {
+            final QuayImageRegistry registry = new QuayImageRegistry(client, objectMapper, quayTokens.get(0));
+            final String url = webhookUrl(c, "quay");
+            if (registry.addPushNotification(c, url)) {
+                containerDAO.onRollback(() -> registry.removePushNotification(c, url));
+            }
+        }
+    }
+
+    private String webhookUrl(Container c, String source) {
+        return UriBuilder.fromUri(webhookUrl).path(source).queryParam("token", c.getWebhookToken()).build().toString();
+    }
+
+    @POST
     @Timed
     @UnitOfWork
+    @Path("/{containerId}/webhooks")
+    @ApiOperation(value = "Get the webhook urls of a container", notes = "Add the url for the container's source code repository as a push "
+            + "webhook there to refresh the container on every push, for GitHub with githubSecret as the secret. Gives the container its "
+            + "webhook token if it has none yet. Quay.io repositories get theirs when they are published.")
+    public Map<String, String> getWebhooks(@ApiParam(hidden = true) @Auth Token authToken,
+            @ApiParam(value = "Container ID", required = true) @PathParam("containerId") Long containerId) {
+        Container c = containerDAO.findById(containerId);
+        Helper.checkContainer(c);
+
+        User user = userDAO.findById(authToken.getUserId());
+        Helper.checkUser(user, c);
+
+        if (webhookUrl == null) {
+            throw new CustomWebApplicationException("Webhooks are not enabled.", HttpStatus.SC_NOT_FOUND);
+        }
+        if (c.getWebhookToken() == null) {
+            c.setWebhookToken(WebhookResource.newToken());
+        }
+        final Map<String, String> webhooks = new HashMap<>();
+        if (c.getRegistry() == Registry.QUAY_IO) {
+            webhooks.put("quay", webhookUrl(c, "quay"));
+        }
+        if (c.getGitUrl() != null && c.getGitUrl().contains("bitbucket.org")) {
+            webhooks.put("bitbucket", webhookUrl(c, "bitbucket"));
+        } else if (c.getGitUrl() != null && c.getGitUrl().contains("github.com")) {
+            webhooks.put("github", UriBuilder.fromUri(webhookUrl).path("github").path(Long.toString(c.getId())).build().toString());
+            webhooks.put("githubSecret", c.getWebhookToken());
+        }
+        return webhooks;
+    }
+
+    @GET
+    @Timed
     @Path("registered")
     @ApiOperation(value = "List all registered containers. This would be a minimal resource that would need to be implemented "
             + "by a GA4GH reference server", tags = { "GA4GH", "containers" }, notes = "NO authentication", response = Container.class, responseContainer = "List")
-    public List<Container> allRegisteredContainers() {
-        return containerDAO.findAllRegistered();
+    public Response allRegisteredContainers(
+            @ApiParam(value = "Maximum number of containers to return, pages are ordered by id") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Return containers after this id, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        return responseCache.get(uriInfo, request, headers, () -> {
+            if (!Pagination.isPaged(limit, cursor)) {
+                return Response.ok(containerDAO.findAllRegistered()).build();
+            }
+            final int pageSize = Pagination.limit(limit);
+            return Pagination.response(containerDAO.findAllRegistered(Pagination.cursor(cursor), pageSize), pageSize);
+        });
+    }
+
+    @GET
+    @Timed
+    @Path("registered/summary")
+    @ApiOperation(value = "List summaries of all registered containers", notes = "Only the id, path, toolname, description, author, registry and "
+            + "last update of each container, /containers/{containerId} has the rest. NO authentication", response = ContainerSummary.class, responseContainer = "List")
+    public Response allRegisteredContainerSummaries(
+            @ApiParam(value = "Maximum number of containers to return, pages are ordered by id") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Return containers after this id, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        final Integer pageSize = Pagination.pageSize(limit, cursor);
+        return responseCache.get(uriInfo, request, headers, () -> Pagination.response(
+                containerDAO.findRegisteredSummaries(Pagination.cursor(cursor), pageSize), pageSize, ContainerSummary::getId));
     }
 
     @GET
     @Timed
-    @UnitOfWork
     @Path("/path/{repository}/registered")
     @ApiOperation(value = "Get a registered container by path", notes = "NO authentication", response = Container.class, responseContainer = "List")
-    public List<Container> getRegisteredContainerByPath(
-            @ApiParam(value = "repository path", required = true) @PathParam("repository") String path) {
-        List<Container> container = containerDAO.findRegisteredByPath(path);
-        Helper.checkContainer(container);
-        return container;
+    public Response getRegisteredContainerByPath(
+            @ApiParam(value = "repository path", required = true) @PathParam("repository") String path,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        return responseCache.get(uriInfo, request, headers, () -> {
+            List<Container> container = containerDAO.findRegisteredByPath(path);
+            Helper.checkContainer(container);
+            return Response.ok(container).build();
+        });
     }
 
     @GET
@@ -418,23 +562,26 @@ public class DockerRepoResource {
 
     @GET
     @Timed
-    @UnitOfWork
     @Path("/path/tool/{repository}/registered")
     @ApiOperation(value = "Get a container by tool path", notes = "Lists info of container. Enter full path (include quay.io in path).", response = Container.class)
-    public Container getRegisteredContainerByToolPath(
-            @ApiParam(value = "repository path", required = true) @PathParam("repository") String path) {
-        final String[] split = path.split("/");
-        // check that this is a tool path
-        final int toolPathLength = 4;
-        String toolname = "";
-        if (split.length == toolPathLength) {
-            toolname = split[toolPathLength - 1];
-        }
+    public Response getRegisteredContainerByToolPath(
+            @ApiParam(value = "repository path", required = true) @PathParam("repository") String path,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        return responseCache.get(uriInfo, request, headers, () -> {
+            final String[] split = path.split("/");
+            // check that this is a tool path
+            final int toolPathLength = 4;
+            String toolname = "";
+            if (split.length == toolPathLength) {
+                toolname = split[toolPathLength - 1];
+            }
 
-        Container container = containerDAO.findRegisteredByToolPath(Joiner.on("/").join(split[0], split[1], split[2]), toolname);
-        Helper.checkContainer(container);
+            Container container = containerDAO.findRegisteredByToolPath(Joiner.on("/").join(split[0], split[1], split[2]), toolname);
+            Helper.checkContainer(container);
 
-        return container;
+            return Response.ok(container).build();
+        });
     }
 
     @PUT
@@ -506,13 +653,63 @@ public class DockerRepoResource {
 
     @GET
     @Timed
-    @UnitOfWork
     @Path("/search")
     @ApiOperation(value = "Search for matching registered containers."
-            + " This would be a minimal resource that would need to be implemented by a GA4GH reference server", notes = "Search on the name (full path name) and description. NO authentication", response = Container.class, responseContainer = "List", tags = {
+            + " This would be a minimal resource that would need to be implemented by a GA4GH reference server", notes = "Full-text search on the path, "
+            + "tool name, author, labels and description, best matches first. Each word matches the start of a word. NO authentication", response = Container.class, responseContainer = "List", tags = {
             "GA4GH", "containers" })
-    public List<Container> search(@QueryParam("pattern") String word) {
-        return containerDAO.searchPattern(word);
+    public Response search(@QueryParam("pattern") String word,
+            @ApiParam(value = "Maximum number of containers to return") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Number of results to skip, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        final Integer pageSize = Pagination.pageSize(limit, cursor);
+        final int offset = Pagination.offset(cursor);
+        return responseCache.get(uriInfo, request, headers, () -> {
+            if (searchEngine.isEnabled()) {
+                final List<Long> ids = searchEngine.search(word, offset, pageSize);
+                return Pagination.offsetResponse(withoutDeleted(ids, containerDAO.findByIds(ids), Container::getId), ids.size(),
+                        pageSize, offset);
+            }
+            return Pagination.offsetResponse(containerDAO.search(word, offset, pageSize), pageSize, offset);
+        });
+    }
+
+    @GET
+    @Timed
+    @Path("/search/summary")
+    @ApiOperation(value = "Search for matching registered containers, returning summaries", notes = "Same search as /containers/search. Only "
+            + "the id, path, toolname, description, author, registry and last update of each container are returned. "
+            + "NO authentication", response = ContainerSummary.class, responseContainer = "List")
+    public Response searchSummaries(@QueryParam("pattern") String word,
+            @ApiParam(value = "Maximum number of containers to return") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Number of results to skip, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor,
+            @Context Request request, @Context HttpHeaders headers,
+            @Context UriInfo uriInfo) {
+        final Integer pageSize = Pagination.pageSize(limit, cursor);
+        final int offset = Pagination.offset(cursor);
+        return responseCache.get(uriInfo, request, headers, () -> {
+            if (searchEngine.isEnabled()) {
+                final List<Long> ids = searchEngine.search(word, offset, pageSize);
+                return Pagination.offsetResponse(withoutDeleted(ids, containerDAO.findSummariesByIds(ids), ContainerSummary::getId),
+                        ids.size(), pageSize, offset);
+            }
+            return Pagination.offsetResponse(containerDAO.searchSummaries(word, offset, pageSize), pageSize, offset);
+        });
+    }
+
+    /**
+     * Containers deleted by a refresh stay in the search index until a search finds them missing from the database.
+     */
+    private <T> List<T> withoutDeleted(List<Long> ids, List<T> found, ToLongFunction<T> id) {
+        if (found.size() < ids.size()) {
+            final Set<Long> missing = new HashSet<>(ids);
+            for (T item : found) {
+                missing.remove(id.applyAsLong(item));
+            }
+            searchEngine.remove(missing);
+        }
+        return found;
     }
 
     @GET
@@ -539,10 +736,29 @@ public class DockerRepoResource {
     @Path("/{containerId}/dockerfile")
     @ApiOperation(value = "Get the corresponding Dockerfile on Github. This would be a minimal resource that would need to be implemented "
             + "by a GA4GH reference server", tags = { "GA4GH", "containers" }, notes = "Does not need authentication", response = SourceFile.class)
-    public SourceFile dockerfile(@ApiParam(value = "Container id", required = true) @PathParam("containerId") Long containerId,
-            @QueryParam("tag") String tag) {
+    public Response dockerfile(@ApiParam(value = "Container id", required = true) @PathParam("containerId") Long containerId,
+            @QueryParam("tag") String tag, @Context Request request) {
 
-        return getSourceFile(containerId, tag, FileType.DOCKERFILE);
+        return fileResponse(getSourceFile(containerId, tag, FileType.DOCKERFILE), request);
+    }
+
+    /**
+     * Files are content-addressed, so their checksum makes a strong ETag. A client that already has the file gets a 304.
+     *
+     * @param file
+     * @param request
+     * @return the file, or 304 Not Modified if it matches the request's If-None-Match
+     */
+    private static Response fileResponse(SourceFile file, Request request) {
+        if (file.getSha256() == null) {
+            return Response.ok(file).build();
+        }
+        final EntityTag etag = new EntityTag(file.getSha256());
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(file).tag(etag).build();
     }
 
     private SourceFile getSourceFile(@ApiParam(value = "Container id", required = true) @PathParam("containerId") Long containerId,
@@ -579,9 +795,9 @@ public class DockerRepoResource {
     @Path("/{containerId}/cwl")
     @ApiOperation(value = "Get the corresponding Dockstore.cwl file on Github. This would be a minimal resource that would need to be implemented "
             + "by a GA4GH reference server", tags = { "GA4GH", "containers" }, notes = "Does not need authentication", response = SourceFile.class)
-    public SourceFile cwl(@ApiParam(value = "Container id", required = true) @PathParam("containerId") Long containerId,
-            @QueryParam("tag") String tag) {
+    public Response cwl(@ApiParam(value = "Container id", required = true) @PathParam("containerId") Long containerId,
+            @QueryParam("tag") String tag, @Context Request request) {
 
-        return getSourceFile(containerId, tag, FileType.DOCKSTORE_CWL);
+        return fileResponse(getSourceFile(containerId, tag, FileType.DOCKSTORE_CWL), request);
     }
 }
@@ -16,7 +16,9 @@
  */
 package io.dockstore.webservice.resources;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,10 +42,12 @@ import com.codahale.metrics.annotation.Timed;
 import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.Helper;
 import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.SourceFile;
 import io.dockstore.webservice.core.Tag;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.User;
 import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.TagDAO;
 import io.dockstore.webservice.jdbi.UserDAO;
 import io.dropwizard.auth.Auth;
@@ -64,12 +68,14 @@ public class DockerRepoTagResource {
     private final UserDAO userDAO;
     private final ContainerDAO containerDAO;
     private final TagDAO tagDAO;
+    private final FileDAO fileDAO;
 
     private static final Logger LOG = LoggerFactory.getLogger(DockerRepoTagResource.class);
 
-    public DockerRepoTagResource(UserDAO userDAO, ContainerDAO containerDAO, TagDAO tagDAO) {
+    public DockerRepoTagResource(UserDAO userDAO, ContainerDAO containerDAO, TagDAO tagDAO, FileDAO fileDAO) {
         this.userDAO = userDAO;
         this.tagDAO = tagDAO;
+        this.fileDAO = fileDAO;
 
         this.containerDAO = containerDAO;
     }
@@ -111,13 +117,17 @@ public class DockerRepoTagResource {
             mapOfExistingTags.put(tag.getId(), tag);
         }
 
+        Set<SourceFile> oldFiles = new HashSet<>();
         for (Tag tag : tags) {
             if (mapOfExistingTags.containsKey(tag.getId())) {
                 // remove existing copy and add the new one
                 final Tag existingTag = mapOfExistingTags.get(tag.getId());
+                oldFiles.addAll(existingTag.getSourceFiles());
                 existingTag.updateByUser(tag);
             }
         }
+        fileDAO.deleteUnused(oldFiles);
+        containerDAO.evictOnCommit(Collections.singletonList(c));
         Container result = containerDAO.findById(containerId);
         Helper.checkContainer(result);
         return result.getTags();
@@ -143,6 +153,7 @@ public class DockerRepoTagResource {
             final Tag byId = tagDAO.findById(tagId);
             c.addTag(byId);
         }
+        containerDAO.evictOnCommit(Collections.singletonList(c));
 
         Container result = containerDAO.findById(containerId);
         Helper.checkContainer(result);
@@ -172,7 +183,11 @@ public class DockerRepoTagResource {
         Set<Tag> listOfTags = c.getTags();
 
         if (listOfTags.contains(tag)) {
+            // while the tag is still listed, so it is evicted along with the container
+            containerDAO.evictOnCommit(Collections.singletonList(c));
+            Set<SourceFile> oldFiles = new HashSet<>(tag.getSourceFiles());
             tag.getSourceFiles().clear();
+            fileDAO.deleteUnused(oldFiles);
 
             if (c.getTags().remove(tag)) {
                 return Response.ok().build();
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+import org.apache.http.HttpStatus;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.common.base.Optional;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.Helper;
+import io.dockstore.webservice.api.RefreshJob;
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.Token;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.RefreshJobManager;
+import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dockstore.webservice.jdbi.UserDAO;
+import io.dropwizard.auth.Auth;
+import io.dropwizard.hibernate.UnitOfWork;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+
+/**
+ * Starts refreshes in the background and reports on them. Each POST returns straight away with a job (202 Accepted, Location pointing at
+ * /jobs/{jobId}) that can be polled until it has finished.
+ */
+@Path("/jobs")
+@Api("/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+public class JobResource {
+    private final UserDAO userDAO;
+    private final ContainerDAO containerDAO;
+    private final RefreshJobManager jobManager;
+
+    public JobResource(UserDAO userDAO, ContainerDAO containerDAO, RefreshJobManager jobManager) {
+        this.userDAO = userDAO;
+        this.containerDAO = containerDAO;
+        this.jobManager = jobManager;
+    }
+
+    @GET
+    @Timed
+    @UnitOfWork
+    @Path("/{jobId}")
+    @ApiOperation(value = "Get the status of a refresh job", response = RefreshJob.class)
+    @ApiResponses(@ApiResponse(code = HttpStatus.SC_NOT_FOUND, message = "Job not found, it may have finished more than an hour ago"))
+    public RefreshJob getJob(@ApiParam(hidden = true) @Auth Token authToken,
+            @ApiParam(value = "Job ID", required = true) @PathParam("jobId") Long jobId) {
+        Optional<RefreshJob> job = jobManager.getJob(jobId);
+        if (!job.isPresent()) {
+            throw new CustomWebApplicationException("Job not found.", HttpStatus.SC_NOT_FOUND);
+        }
+
+        User user = userDAO.findById(authToken.getUserId());
+        Helper.checkUser(user, job.get().getUserId());
+        return job.get();
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/refresh/users/{userId}")
+    @ApiOperation(value = "Refresh repos owned by a user in the background", response = RefreshJob.class)
+    public Response refreshUser(@ApiParam(hidden = true) @Auth Token authToken,
+            @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId) {
+        User user = userDAO.findById(authToken.getUserId());
+        Helper.checkUser(user, userId);
+
+        return accepted(jobManager.refreshUser(userId, authToken.getUserId()));
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/refresh/containers/{containerId}")
+    @ApiOperation(value = "Refresh one particular repo in the background", response = RefreshJob.class)
+    public Response refreshContainer(@ApiParam(hidden = true) @Auth Token authToken,
+            @ApiParam(value = "Container ID", required = true) @PathParam("containerId") Long containerId) {
+        Container c = containerDAO.findById(containerId);
+        Helper.checkContainer(c);
+
+        User user = userDAO.findById(authToken.getUserId());
+        Helper.checkUser(user, c);
+
+        return accepted(jobManager.refreshContainer(containerId, authToken.getUserId()));
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/refresh")
+    @ApiOperation(value = "Refresh all repos in the background", notes = "ADMIN ONLY", response = RefreshJob.class)
+    public Response refreshAll(@ApiParam(hidden = true) @Auth Token authToken) {
+        User user = userDAO.findById(authToken.getUserId());
+        Helper.checkUser(user);
+
+        return accepted(jobManager.refreshAll(authToken.getUserId()));
+    }
+
+    private static Response accepted(RefreshJob job) {
+        return Response.accepted(job).location(UriBuilder.fromResource(JobResource.class).path("{jobId}").build(job.getId())).build();
+    }
+}
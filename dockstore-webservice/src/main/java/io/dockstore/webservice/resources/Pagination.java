@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.http.HttpStatus;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.core.Container;
+
+/**
+ * limit/cursor handling shared by the container listings.
+ *
+ * Listings stay unbounded when neither parameter is given, as older clients expect. Otherwise a page of at most limit containers is
+ * returned, ordered by id, and when there may be more the id to pass as the next cursor is sent in the X-Next-Cursor header.
+ *
+ * Search results are ordered by relevance rather than id, so there the cursor is the number of results already seen.
+ */
+public final class Pagination {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    private Pagination() {
+        // utility class
+    }
+
+    /**
+     * @param limit
+     * @param cursor
+     * @return true if the caller asked for a page rather than the whole listing
+     */
+    public static boolean isPaged(Integer limit, Long cursor) {
+        return limit != null || cursor != null;
+    }
+
+    /**
+     * @param limit
+     *            requested page size, may be null
+     * @return the page size to use, at most {@link #MAX_LIMIT}
+     */
+    public static int limit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1) {
+            throw new CustomWebApplicationException("limit must be at least 1.", HttpStatus.SC_BAD_REQUEST);
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * @param limit
+     * @param cursor
+     * @return the page size to use, or null if the whole listing was asked for
+     */
+    public static Integer pageSize(Integer limit, Long cursor) {
+        return isPaged(limit, cursor) ? limit(limit) : null;
+    }
+
+    /**
+     * @param cursor
+     *            cursor from a previous page, may be null
+     * @return the id to start after
+     */
+    public static long cursor(Long cursor) {
+        if (cursor == null) {
+            return 0;
+        }
+        if (cursor < 0) {
+            throw new CustomWebApplicationException("cursor must not be negative.", HttpStatus.SC_BAD_REQUEST);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param cursor
+     *            cursor from a previous page of a listing ordered by something other than id, may be null
+     * @return the number of results to skip
+     */
+    public static int offset(Long cursor) {
+        final long offset = cursor(cursor);
+        if (offset > Integer.MAX_VALUE) {
+            throw new CustomWebApplicationException("cursor must be at most " + Integer.MAX_VALUE + ".", HttpStatus.SC_BAD_REQUEST);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * @param page
+     * @param limit
+     *            the page size that was used to get the page
+     * @return a response with the page, and the next cursor if the page is full
+     */
+    public static Response response(List<Container> page, int limit) {
+        return response(page, limit, Container::getId);
+    }
+
+    /**
+     * @param page
+     * @param limit
+     *            the page size that was used to get the page, null if it is the whole listing
+     * @param id
+     *            gets the id the page is ordered by from an item
+     * @return a response with the page, and the next cursor if the page is full
+     */
+    public static <T> Response response(List<T> page, Integer limit, ToLongFunction<T> id) {
+        Response.ResponseBuilder builder = Response.ok(page);
+        if (limit != null && page.size() >= limit) {
+            builder.header(NEXT_CURSOR_HEADER, id.applyAsLong(page.get(page.size() - 1)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * For listings ordered by something other than id, where the cursor is a position in the listing.
+     *
+     * @param page
+     * @param limit
+     *            the page size that was used to get the page, null if it is the whole listing
+     * @param offset
+     *            position of the first item of the page
+     * @return a response with the page, and the next cursor if the page is full
+     */
+    public static <T> Response offsetResponse(List<T> page, Integer limit, long offset) {
+        return offsetResponse(page, page.size(), limit, offset);
+    }
+
+    /**
+     * As {@link #offsetResponse(List, Integer, long)}, for when some of the items found for the page could not be returned.
+     *
+     * @param page
+     * @param found
+     *            number of items that were found for the page, at least the size of the page
+     * @param limit
+     * @param offset
+     * @return a response with the page, and the next cursor if the page was full before items were left out
+     */
+    public static <T> Response offsetResponse(List<T> page, int found, Integer limit, long offset) {
+        Response.ResponseBuilder builder = Response.ok(page);
+        if (limit != null && found >= limit) {
+            builder.header(NEXT_CURSOR_HEADER, offset + found);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+
+/**
+ * Puts the calls of a JAX-RS client, such as the generated Quay.io client, under a {@link RateLimitGovernor}. A call waits for its slot,
+ * and if the budget has none within the longest wait it is not sent: the client gets the 503 with a Retry-After that the governor turned
+ * it away with, as if the server had answered.
+ */
+public class RateLimitClientFilter implements ClientRequestFilter, ClientResponseFilter {
+    private final RateLimitGovernor rateLimits;
+
+    public RateLimitClientFilter(RateLimitGovernor rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    @Override
+    public void filter(ClientRequestContext request) {
+        try {
+            rateLimits.acquire(request.getUri().getHost(), request.getHeaderString(HttpHeaders.AUTHORIZATION));
+        } catch (WebApplicationException ex) {
+            request.abortWith(ex.getResponse());
+        }
+    }
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) {
+        rateLimits.record(request.getUri().getHost(), request.getHeaderString(HttpHeaders.AUTHORIZATION), response.getStatus(),
+                response::getHeaderString);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+
+/**
+ * Keeps calls to GitHub, Quay and Bitbucket under their rate limits, per host and per credentials. The budget is read from the
+ * X-RateLimit-Limit/Remaining/Reset headers of every response. While plenty is left calls go straight through. Once the remaining calls
+ * drop under a tenth of the limit they are spaced out evenly until the reset, and when none are left no calls are made until the reset.
+ *
+ * A call that does not fit yet waits for its slot, slots being handed out first come first served, so a refresh that fans out runs at the
+ * pace the limit allows. The threads waiting hold host permits, sessions and database connections, so waits are bounded: a call whose
+ * slot is further off than the longest wait gets a 503 with a Retry-After instead and takes no slot, and the refresh fails loudly rather
+ * than treating the missing answers as missing files or tags. A 429, or a 403 that says the limit is used up, marks the budget empty
+ * until the reset (or Retry-After).
+ *
+ * Credentials are only kept as a hash in the key.
+ */
+public class RateLimitGovernor {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitGovernor.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int PACING_FRACTION = 10;
+    // how long to hold back when turned away without being told for how long
+    private static final long DEFAULT_RETRY_SECONDS = 60;
+    private static final long DEFAULT_MAX_WAIT_SECONDS = 60;
+
+    private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<>();
+    private volatile long maxWaitMillis = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_WAIT_SECONDS);
+
+    /**
+     * @param maxWaitMillis
+     *            longest a call waits for its slot before it is turned away instead, 0 to never wait
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Take a slot for the request in the budget of its host and credentials, waiting for it if it is not far off
+     *
+     * @param request
+     * @throws CustomWebApplicationException
+     *             503 with a Retry-After if the budget has no slot for the request within the longest wait
+     */
+    public void acquire(HttpUriRequest request) {
+        final Header authorization = request.getFirstHeader(HttpHeaders.AUTHORIZATION);
+        acquire(request.getURI().getHost(), authorization == null ? null : authorization.getValue());
+    }
+
+    /**
+     * @param host
+     * @param authorization
+     *            the Authorization header of the request, null if it has none
+     * @throws CustomWebApplicationException
+     *             503 with a Retry-After if the budget has no slot for the request within the longest wait
+     */
+    public void acquire(String host, String authorization) {
+        final long maxWait = maxWaitMillis;
+        final long waitMillis = budgets.computeIfAbsent(key(host, authorization), k -> new Budget()).reserve(System.currentTimeMillis(),
+                maxWait);
+        if (waitMillis > maxWait) {
+            LOG.info("Turning a call to {} away for {}ms to stay under its rate limit", host, waitMillis);
+            throw tooManyCalls(host, waitMillis);
+        }
+        if (waitMillis > 0) {
+            LOG.info("Holding a call to {} back for {}ms to stay under its rate limit", host, waitMillis);
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw tooManyCalls(host, waitMillis);
+            }
+        }
+    }
+
+    private static CustomWebApplicationException tooManyCalls(String host, long waitMillis) {
+        final long retryAfterSeconds = TimeUnit.MILLISECONDS.toSeconds(waitMillis + TimeUnit.SECONDS.toMillis(1) - 1);
+        return new CustomWebApplicationException("The rate limit of " + host + " is used up for another " + retryAfterSeconds
+                + " seconds, please try again later.", HttpStatus.SC_SERVICE_UNAVAILABLE, retryAfterSeconds);
+    }
+
+    /**
+     * Update the budget from the headers of a response
+     *
+     * @param request
+     * @param response
+     * @return true if the request was turned away for exceeding the rate limit, {@link #acquire} then says until when
+     */
+    public boolean record(HttpUriRequest request, HttpResponse response) {
+        final Header authorization = request.getFirstHeader(HttpHeaders.AUTHORIZATION);
+        return record(request.getURI().getHost(), authorization == null ? null : authorization.getValue(),
+                response.getStatusLine().getStatusCode(), name -> {
+                    final Header header = response.getFirstHeader(name);
+                    return header == null ? null : header.getValue();
+                });
+    }
+
+    /**
+     * @param host
+     * @param authorization
+     *            the Authorization header of the request, null if it has none
+     * @param status
+     * @param headers
+     *            the value of a response header by name, null if it was not sent
+     * @return true if the request was turned away for exceeding the rate limit
+     */
+    public boolean record(String host, String authorization, int status, Function<String, String> headers) {
+        final long now = System.currentTimeMillis();
+        final Long limit = longHeader(headers, "X-RateLimit-Limit");
+        final Long remaining = longHeader(headers, "X-RateLimit-Remaining");
+        final Long reset = longHeader(headers, "X-RateLimit-Reset");
+        final Long retryAfter = longHeader(headers, HttpHeaders.RETRY_AFTER);
+        final boolean limited = status == TOO_MANY_REQUESTS
+                || (status == HttpStatus.SC_FORBIDDEN && ((remaining != null && remaining == 0) || retryAfter != null));
+        if (!limited && remaining == null) {
+            return false;
+        }
+
+        long resetMillis = reset == null ? 0 : TimeUnit.SECONDS.toMillis(reset);
+        if (retryAfter != null) {
+            resetMillis = now + TimeUnit.SECONDS.toMillis(retryAfter);
+        } else if (limited && resetMillis <= now) {
+            resetMillis = now + TimeUnit.SECONDS.toMillis(DEFAULT_RETRY_SECONDS);
+        }
+        final Budget budget = budgets.computeIfAbsent(key(host, authorization), k -> new Budget());
+        if (limited) {
+            LOG.warn("{} rate limited a call, turning calls away until {}", host, resetMillis);
+            budget.exhausted(resetMillis);
+        } else {
+            budget.update(limit == null ? 0 : limit, remaining, resetMillis);
+        }
+        return limited;
+    }
+
+    private static Long longHeader(Function<String, String> headers, String name) {
+        final String header = headers.apply(name);
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(header.trim());
+        } catch (NumberFormatException ex) {
+            // e.g. a Retry-After given as a date
+            return null;
+        }
+    }
+
+    private static String key(String host, String authorization) {
+        final StringBuilder key = new StringBuilder(host);
+        if (authorization != null) {
+            key.append('|').append(Hashing.sha256().hashString(authorization, StandardCharsets.UTF_8));
+        }
+        return key.toString();
+    }
+
+    /**
+     * What is known of one rate limit window. Slots are handed out in order, so callers held back are served first come first served.
+     * Calls turned away take none.
+     */
+    private static final class Budget {
+        private long limit;
+        private long remaining = -1;
+        private long resetMillis;
+        private long nextSlotMillis;
+
+        /**
+         * @return how long until the slot taken, or if that is more than maxWaitMillis how long until there may be one, without taking it
+         */
+        synchronized long reserve(long now, long maxWaitMillis) {
+            if (resetMillis <= now) {
+                // a new window, nothing known about it until the next response
+                remaining = -1;
+                nextSlotMillis = 0;
+                return 0;
+            }
+            if (remaining == 0) {
+                // calls held back until the reset are the first of the new window
+                return resetMillis - now;
+            }
+            if (remaining < 0 || remaining > limit / PACING_FRACTION) {
+                remaining = Math.max(-1, remaining - 1);
+                return 0;
+            }
+            final long slot = Math.max(now, nextSlotMillis);
+            if (slot - now > maxWaitMillis) {
+                return slot - now;
+            }
+            nextSlotMillis = slot + (resetMillis - now) / remaining;
+            remaining--;
+            return slot - now;
+        }
+
+        synchronized void update(long newLimit, long newRemaining, long newResetMillis) {
+            limit = newLimit;
+            remaining = newRemaining;
+            resetMillis = newResetMillis;
+        }
+
+        synchronized void exhausted(long newResetMillis) {
+            remaining = 0;
+            resetMillis = Math.max(resetMillis, newResetMillis);
+        }
+    }
+}
@@ -21,10 +21,15 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicResponseHandler;
@@ -38,11 +43,47 @@ import org.slf4j.LoggerFactory;
 public class ResourceUtilities {
     private static final Logger LOG = LoggerFactory.getLogger(ResourceUtilities.class);
 
+    // GETs wait their turn under the rate limit of their host and token
+    private static final RateLimitGovernor RATE_LIMITS = new RateLimitGovernor();
+    // GETs are made conditional on what was seen last time, see getResponseAsString(HttpGet, HttpClient); nothing is kept until the
+    // application sets a cache
+    private static volatile ConditionalResponseCache responseCache = new ConditionalResponseCache(0, RATE_LIMITS);
+
+    /**
+     * @return the governor that keeps GETs under the rate limits of GitHub, Quay and Bitbucket
+     */
+    public static RateLimitGovernor getRateLimitGovernor() {
+        return RATE_LIMITS;
+    }
+
+    /**
+     * @param cache
+     *            keeps the responses to GETs, to make the next GET for them conditional. It should go through
+     *            {@link #getRateLimitGovernor()} like the rest
+     */
+    public static void setResponseCache(ConditionalResponseCache cache) {
+        responseCache = cache;
+    }
+
     // from dropwizard example
     public static Optional<String> asString(String input, String token, HttpClient client) {
         return getResponseAsString(buildHttpGet(input, token), client);
     }
 
+    /**
+     * @param input
+     * @param token
+     * @param accept
+     *            media type to ask for, e.g. GitHub's raw file contents
+     * @param client
+     * @return the body of the response
+     */
+    public static Optional<String> asString(String input, String token, String accept, HttpClient client) {
+        HttpGet httpGet = buildHttpGet(input, token);
+        httpGet.addHeader(HttpHeaders.ACCEPT, accept);
+        return getResponseAsString(httpGet, client);
+    }
+
     public static Optional<String> bitbucketPost(String input, String token, HttpClient client, String client_id, String secret,
             String payload) throws UnsupportedEncodingException {
         return getResponseAsString(buildHttpPost(input, token, client_id, secret, payload), client);
@@ -73,11 +114,18 @@ public class ResourceUtilities {
         return httpPost;
     }
 
+    /**
+     * Responses that carried an ETag or Last-Modified are cached, and the next GET of the same URL with the same token sends
+     * If-None-Match/If-Modified-Since. A 304 gives back the cached body.
+     *
+     * @param httpGet
+     * @param client
+     * @return the body of the response, absent on errors
+     */
     public static Optional<String> getResponseAsString(HttpGet httpGet, HttpClient client) {
         Optional<String> result = Optional.absent();
         try {
-            ResponseHandler<String> responseHandler = new BasicResponseHandler();
-            result = Optional.of(client.execute(httpGet, responseHandler));
+            result = Optional.fromNullable(responseCache.execute(httpGet, client));
         } catch (HttpResponseException httpResponseException) {
             LOG.error("getResponseAsString(): caught 'HttpResponseException' while processing request <{}> :=> <{}>", httpGet,
                     httpResponseException.getMessage());
@@ -89,6 +137,41 @@ public class ResourceUtilities {
         return result;
     }
 
+    /**
+     * For registries that answer metadata, such as an image manifest's digest, in headers only. Kept under the rate limit of the registry
+     * like GETs.
+     *
+     * @param httpHead
+     * @param header
+     * @param client
+     * @return the value of the header in a 200 response, absent on errors
+     * @throws io.dockstore.webservice.CustomWebApplicationException
+     *             503 with a Retry-After if the rate limit of the registry does not allow the request now
+     */
+    public static Optional<String> getResponseHeader(HttpHead httpHead, String header, HttpClient client) {
+        Optional<String> result = Optional.absent();
+        RATE_LIMITS.acquire(httpHead);
+        try {
+            final HttpResponse response = client.execute(httpHead);
+            if (RATE_LIMITS.record(httpHead, response)) {
+                // says until when
+                RATE_LIMITS.acquire(httpHead);
+            }
+            final int status = response.getStatusLine().getStatusCode();
+            final Header value = response.getFirstHeader(header);
+            if (status != HttpStatus.SC_OK) {
+                LOG.error("getResponseHeader(): status {} while processing request <{}>", status, httpHead);
+            } else if (value != null) {
+                result = Optional.of(value.getValue());
+            }
+        } catch (IOException ioe) {
+            LOG.error("getResponseHeader(): caught 'IOException' while processing request <{}> :=> <{}>", httpHead, ioe.getMessage());
+        } finally {
+            httpHead.releaseConnection();
+        }
+        return result;
+    }
+
     public static Optional<String> getResponseAsString(HttpPost httpPost, HttpClient client) {
         Optional<String> result = Optional.absent();
         try {
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.apache.http.HttpStatus;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.jdbi.RegistryVersion;
+import io.dockstore.webservice.jdbi.UnitOfWorkRunner;
+
+/**
+ * Keeps responses to public GET requests as serialized JSON, so that repeated requests are answered without going to the database or
+ * serializing anything.
+ *
+ * A response is kept along with the {@link RegistryVersion} it was built at and is rebuilt once anything has been written since. Each
+ * response has a strong ETag from its content, and a request with a matching If-None-Match gets a 304. Optionally a gzipped copy is kept
+ * as well, for clients that accept gzip. Concurrent requests for a response that has to be rebuilt wait for the first of them to build it.
+ */
+public class SerializedResponseCache {
+    private static final String GZIP = "gzip";
+
+    private final RegistryVersion registryVersion;
+    private final UnitOfWorkRunner unitOfWork;
+    private final ObjectMapper mapper;
+    private final boolean gzip;
+    private final Cache<String, CachedResponse> cache;
+    // responses being built, completed once the build is over whatever its outcome
+    private final ConcurrentMap<String, CompletableFuture<Void>> building = new ConcurrentHashMap<>();
+
+    /**
+     * @param registryVersion
+     * @param unitOfWork
+     *            to build responses in
+     * @param mapper
+     *            the same mapper Jersey serializes responses with
+     * @param maxBytes
+     *            most bytes of responses to keep, 0 to keep none
+     * @param gzip
+     *            true to also keep a gzipped copy of each response
+     */
+    public SerializedResponseCache(RegistryVersion registryVersion, UnitOfWorkRunner unitOfWork, ObjectMapper mapper, long maxBytes,
+            boolean gzip) {
+        this.registryVersion = registryVersion;
+        this.unitOfWork = unitOfWork;
+        this.mapper = mapper;
+        this.gzip = gzip;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse response) -> response.weight()).build();
+    }
+
+    /**
+     * Answer a request from the cache, building the response if there is nothing cached since the last write.
+     *
+     * @param uriInfo
+     *            the path and query of the request identify the response
+     * @param request
+     *            for If-None-Match
+     * @param headers
+     *            for Accept-Encoding
+     * @param build
+     *            builds the response, which is serialized in the same session so lazy collections can still be loaded. Only 200 OK
+     *            responses are kept
+     * @return the response
+     */
+    public Response get(UriInfo uriInfo, Request request, HttpHeaders headers, Supplier<Response> build) {
+        final String key = uriInfo.getRequestUri().getRawPath() + '?' + uriInfo.getRequestUri().getRawQuery();
+        final long seen = registryVersion.get();
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached != null && cached.version >= seen) {
+            return respond(cached, request, acceptsGzip(headers));
+        }
+
+        final CompletableFuture<Void> mine = new CompletableFuture<>();
+        final CompletableFuture<Void> other = building.putIfAbsent(key, mine);
+        if (other != null) {
+            // another request is already building it, which will do unless that build started before the last write seen here
+            other.join();
+            cached = cache.getIfPresent(key);
+            if (cached != null && cached.version >= seen) {
+                return respond(cached, request, acceptsGzip(headers));
+            }
+            return build(key, request, headers, build);
+        }
+        try {
+            return build(key, request, headers, build);
+        } finally {
+            building.remove(key, mine);
+            mine.complete(null);
+        }
+    }
+
+    private Response build(String key, Request request, HttpHeaders headers, Supplier<Response> build) {
+        final long version = registryVersion.get();
+        final Object built = unitOfWork.call(() -> {
+            final Response response = build.get();
+            return response.getStatus() == HttpStatus.SC_OK ? serialize(version, response) : response;
+        });
+        if (!(built instanceof CachedResponse)) {
+            return (Response) built;
+        }
+        cache.put(key, (CachedResponse) built);
+        return respond((CachedResponse) built, request, acceptsGzip(headers));
+    }
+
+    private CachedResponse serialize(long version, Response response) {
+        try {
+            final byte[] body = mapper.writeValueAsBytes(response.getEntity());
+            final Map<String, List<Object>> responseHeaders = new HashMap<>();
+            for (Map.Entry<String, List<Object>> header : response.getHeaders().entrySet()) {
+                responseHeaders.put(header.getKey(), new ArrayList<>(header.getValue()));
+            }
+            return new CachedResponse(version, body, gzip ? gzip(body) : null, Hashing.sha256().hashBytes(body).toString(),
+                    responseHeaders);
+        } catch (JsonProcessingException ex) {
+            throw new CustomWebApplicationException("Could not serialize response", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        } catch (IOException ex) {
+            throw new CustomWebApplicationException("Could not compress response", HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean acceptsGzip(HttpHeaders headers) {
+        final List<String> accepted = headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (accepted == null) {
+            return false;
+        }
+        for (String header : accepted) {
+            for (String encoding : header.split(",")) {
+                final String[] parts = encoding.trim().split("\\s*;\\s*");
+                if (GZIP.equalsIgnoreCase(parts[0]) && !(parts.length > 1 && parts[1].matches("q=0(\\.0*)?"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Response respond(CachedResponse cached, Request request, boolean acceptsGzip) {
+        final boolean gzipped = acceptsGzip && cached.gzipped != null;
+        // the gzipped copy is a different representation, so it needs its own tag
+        final EntityTag etag = new EntityTag(gzipped ? cached.etag + '-' + GZIP : cached.etag);
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        final Response.ResponseBuilder builder = Response.ok(gzipped ? cached.gzipped : cached.body, MediaType.APPLICATION_JSON_TYPE)
+                .tag(etag);
+        for (Map.Entry<String, List<Object>> header : cached.headers.entrySet()) {
+            for (Object value : header.getValue()) {
+                builder.header(header.getKey(), value);
+            }
+        }
+        if (cached.gzipped != null) {
+            builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (gzipped) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return builder.build();
+    }
+
+    /**
+     * A serialized response and the registry version it was built at
+     */
+    private static final class CachedResponse {
+        private final long version;
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final String etag;
+        private final Map<String, List<Object>> headers;
+
+        CachedResponse(long version, byte[] body, byte[] gzipped, String etag, Map<String, List<Object>> headers) {
+            this.version = version;
+            this.body = body;
+            this.gzipped = gzipped;
+            this.etag = etag;
+            this.headers = headers;
+        }
+
+        int weight() {
+            return body.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+}
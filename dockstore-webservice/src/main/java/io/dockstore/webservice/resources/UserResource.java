@@ -49,11 +49,14 @@ import com.google.gson.Gson;
 
 import io.dockstore.webservice.CustomWebApplicationException;
 import io.dockstore.webservice.Helper;
+import io.dockstore.webservice.api.ContainerSummary;
 import io.dockstore.webservice.core.Container;
 import io.dockstore.webservice.core.Group;
 import io.dockstore.webservice.core.Token;
 import io.dockstore.webservice.core.TokenType;
 import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.ContainerSearchEngine;
+import io.dockstore.webservice.helpers.RefreshExecutor;
 import io.dockstore.webservice.jdbi.ContainerDAO;
 import io.dockstore.webservice.jdbi.FileDAO;
 import io.dockstore.webservice.jdbi.GroupDAO;
@@ -85,6 +88,8 @@ public class UserResource {
     private final FileDAO fileDAO;
     private final String bitbucketClientID;
     private final String bitbucketClientSecret;
+    private final RefreshExecutor refreshExecutor;
+    private final ContainerSearchEngine searchEngine;
 
     private final ObjectMapper objectMapper;
 
@@ -92,7 +97,8 @@ public class UserResource {
 
     @SuppressWarnings("checkstyle:parameternumber")
     public UserResource(ObjectMapper mapper, HttpClient client, TokenDAO tokenDAO, UserDAO userDAO, GroupDAO groupDAO,
-            ContainerDAO containerDAO, TagDAO tagDAO, FileDAO fileDAO, String bitbucketClientID, String bitbucketClientSecret) {
+            ContainerDAO containerDAO, TagDAO tagDAO, FileDAO fileDAO, String bitbucketClientID, String bitbucketClientSecret,
+            RefreshExecutor refreshExecutor, ContainerSearchEngine searchEngine) {
         objectMapper = mapper;
         this.client = client;
         this.userDAO = userDAO;
@@ -103,6 +109,8 @@ public class UserResource {
         this.fileDAO = fileDAO;
         this.bitbucketClientID = bitbucketClientID;
         this.bitbucketClientSecret = bitbucketClientSecret;
+        this.refreshExecutor = refreshExecutor;
+        this.searchEngine = searchEngine;
     }
 
     @POST
@@ -402,7 +410,9 @@ public class UserResource {
             Helper.refreshBitbucketToken(bitbucketToken, client, tokenDAO, bitbucketClientID, bitbucketClientSecret);
         }
 
-        List<Container> containers = Helper.refresh(userId, client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO);
+        List<Container> containers = Helper.refresh(userId, client, objectMapper, userDAO, containerDAO, tokenDAO, tagDAO, fileDAO,
+                refreshExecutor);
+        searchEngine.updateOnCommit(containers);
         return containers;
     }
 
@@ -411,13 +421,37 @@ public class UserResource {
     @Timed
     @UnitOfWork
     @ApiOperation(value = "List repos owned by the logged-in user", notes = "Lists all registered and unregistered containers owned by the user", response = Container.class, responseContainer = "List")
-    public List<Container> userContainers(@ApiParam(hidden = true) @Auth Token token,
-            @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId) {
+    public Response userContainers(@ApiParam(hidden = true) @Auth Token token,
+            @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId,
+            @ApiParam(value = "Maximum number of containers to return, pages are ordered by id") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Return containers after this id, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor) {
+        User user = userDAO.findById(token.getUserId());
+        Helper.checkUser(user, userId);
+
+        if (!Pagination.isPaged(limit, cursor)) {
+            List<Container> ownedContainers = new ArrayList(user.getContainers());
+            return Response.ok(ownedContainers).build();
+        }
+        final int pageSize = Pagination.limit(limit);
+        return Pagination.response(containerDAO.findByUserId(userId, Pagination.cursor(cursor), pageSize), pageSize);
+    }
+
+    @GET
+    @Path("/{userId}/containers/summary")
+    @Timed
+    @UnitOfWork
+    @ApiOperation(value = "List summaries of repos owned by a user", notes = "Only the id, path, toolname, description, author, registry and last "
+            + "update of each container, /containers/{containerId} has the rest", response = ContainerSummary.class, responseContainer = "List")
+    public Response userContainerSummaries(@ApiParam(hidden = true) @Auth Token token,
+            @ApiParam(value = "User ID", required = true) @PathParam("userId") Long userId,
+            @ApiParam(value = "Maximum number of containers to return, pages are ordered by id") @QueryParam("limit") Integer limit,
+            @ApiParam(value = "Return containers after this id, taken from the X-Next-Cursor header of the previous page") @QueryParam("cursor") Long cursor) {
         User user = userDAO.findById(token.getUserId());
         Helper.checkUser(user, userId);
 
-        List<Container> ownedContainers = new ArrayList(user.getContainers());
-        return ownedContainers;
+        final Integer pageSize = Pagination.pageSize(limit, cursor);
+        return Pagination.response(containerDAO.findSummariesByUserId(userId, Pagination.cursor(cursor), pageSize), pageSize,
+                ContainerSummary::getId);
     }
 
     @GET
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.BaseEncoding;
+
+import io.dockstore.webservice.CustomWebApplicationException;
+import io.dockstore.webservice.api.RefreshJob;
+import io.dockstore.webservice.core.Container;
+import io.dockstore.webservice.core.User;
+import io.dockstore.webservice.helpers.RefreshJobManager;
+import io.dockstore.webservice.jdbi.ContainerDAO;
+import io.dropwizard.hibernate.UnitOfWork;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+
+/**
+ * Receives notifications from Quay.io, GitHub and Bitbucket and refreshes just the containers they are about, in the background (see
+ * {@link RefreshJobManager}), so a new build or push shows up in seconds instead of at the next refresh.
+ *
+ * Quay.io and Bitbucket cannot sign their payloads, so their hooks carry the webhook token of a container as a query parameter and only
+ * refresh the containers with that token. GitHub hooks are made per container and signed (X-Hub-Signature) with the container's webhook
+ * token as the secret.
+ */
+@Path("/webhooks")
+@Api("/webhooks")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class WebhookResource {
+    private static final Logger LOG = LoggerFactory.getLogger(WebhookResource.class);
+
+    private static final String HMAC_SHA1 = "HmacSHA1";
+    private static final String SIGNATURE_PREFIX = "sha1=";
+    private static final int TOKEN_BYTES = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ContainerDAO containerDAO;
+    private final RefreshJobManager jobManager;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+
+    public WebhookResource(ContainerDAO containerDAO, RefreshJobManager jobManager, ObjectMapper objectMapper, boolean enabled) {
+        this.containerDAO = containerDAO;
+        this.jobManager = jobManager;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return a new random webhook token for a container
+     */
+    public static String newToken() {
+        final byte[] token = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(token);
+        return BaseEncoding.base16().lowerCase().encode(token);
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/quay")
+    @ApiOperation(value = "Refresh the containers of a Quay.io repository", notes = "Target of a Quay.io repository notification, "
+            + "e.g. on build_success. Dockstore adds one when a Quay.io container is published.", response = RefreshJob.class, responseContainer = "List")
+    public Response quay(@ApiParam(value = "The webhook token of the container", required = true) @QueryParam("token") String token,
+            @ApiParam(value = "Quay.io notification", required = true) String payload) {
+        checkEnabled(enabled);
+        final JsonNode notification = parse(payload);
+        final String repository = notification.path("repository").asText();
+        LOG.info("Quay.io notification for {}, tags {}", repository, notification.path("updated_tags"));
+        return refresh(withToken(containerDAO.findByPath("quay.io/" + repository), token));
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/github/{containerId}")
+    @ApiOperation(value = "Refresh a container built from a GitHub repository", notes = "Target of a GitHub push webhook with content "
+            + "type application/json, signed with the container's webhook token as the secret.", response = RefreshJob.class, responseContainer = "List")
+    public Response github(@ApiParam(value = "Container ID", required = true) @PathParam("containerId") Long containerId,
+            @ApiParam(hidden = true) @HeaderParam("X-GitHub-Event") String event,
+            @ApiParam(hidden = true) @HeaderParam("X-Hub-Signature") String signature,
+            @ApiParam(value = "GitHub push event", required = true) String payload) {
+        checkEnabled(enabled);
+        final Container container = containerDAO.findById(containerId);
+        checkSignature(container == null ? null : container.getWebhookToken(), signature, payload);
+        if (!"push".equals(event)) {
+            // e.g. the ping sent when the hook is added
+            return Response.ok(new ArrayList<RefreshJob>()).build();
+        }
+        final JsonNode push = parse(payload);
+        LOG.info("GitHub push of {} to {}", push.path("ref").asText(), push.path("repository").path("full_name").asText());
+        if (!gitUrl("github.com", push).equals(container.getGitUrl())) {
+            // a hook on another repository than the one the container is built from
+            return Response.ok(new ArrayList<RefreshJob>()).build();
+        }
+        return refresh(Collections.singletonList(container));
+    }
+
+    @POST
+    @Timed
+    @UnitOfWork
+    @Path("/bitbucket")
+    @ApiOperation(value = "Refresh the containers built from a Bitbucket repository", notes = "Target of a Bitbucket repository push "
+            + "webhook.", response = RefreshJob.class, responseContainer = "List")
+    public Response bitbucket(@ApiParam(value = "The webhook token of the container", required = true) @QueryParam("token") String token,
+            @ApiParam(value = "Bitbucket push event", required = true) String payload) {
+        checkEnabled(enabled);
+        final JsonNode push = parse(payload);
+        LOG.info("Bitbucket push to {}", push.path("repository").path("full_name").asText());
+        return refresh(withToken(containerDAO.findByGitUrl(gitUrl("bitbucket.org", push)), token));
+    }
+
+    private Response refresh(List<Container> containers) {
+        final List<RefreshJob> jobs = new ArrayList<>();
+        for (Container container : containers) {
+            final Long ownerId = ownerId(container);
+            if (ownerId != null) {
+                jobs.add(jobManager.refreshContainer(container.getId(), ownerId));
+            }
+        }
+        return Response.accepted(jobs).build();
+    }
+
+    /**
+     * @return the user whose tokens refresh the container, the one that has had it longest
+     */
+    private static Long ownerId(Container container) {
+        Long ownerId = null;
+        for (User user : container.getUsers()) {
+            if (ownerId == null || user.getId() < ownerId) {
+                ownerId = user.getId();
+            }
+        }
+        return ownerId;
+    }
+
+    private static String gitUrl(String source, JsonNode push) {
+        return "git@" + source + ":" + push.path("repository").path("full_name").asText() + ".git";
+    }
+
+    private JsonNode parse(String payload) {
+        try {
+            return objectMapper.readTree(payload);
+        } catch (IOException ex) {
+            throw new CustomWebApplicationException("Could not parse the notification.", HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    /**
+     * @return the containers the event is about whose webhook token is the given one
+     */
+    private static List<Container> withToken(List<Container> containers, String token) {
+        final List<Container> matching = new ArrayList<>();
+        if (token != null) {
+            for (Container container : containers) {
+                final String expected = container.getWebhookToken();
+                if (expected != null
+                        && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))) {
+                    matching.add(container);
+                }
+            }
+        }
+        if (matching.isEmpty()) {
+            throw new CustomWebApplicationException("Forbidden.", HttpStatus.SC_FORBIDDEN);
+        }
+        return matching;
+    }
+
+    /**
+     * @param secret
+     *            the webhook token of the container the hook is for, null if there is no such container or it has no token
+     */
+    private static void checkSignature(String secret, String signature, String payload) {
+        if (secret == null || signature == null || !signature.startsWith(SIGNATURE_PREFIX)) {
+            throw new CustomWebApplicationException("Forbidden.", HttpStatus.SC_FORBIDDEN);
+        }
+        final byte[] expected;
+        try {
+            final Mac mac = Mac.getInstance(HMAC_SHA1);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_SHA1));
+            expected = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException | InvalidKeyException ex) {
+            throw new IllegalStateException(ex);
+        }
+        final byte[] given;
+        try {
+            given = BaseEncoding.base16().lowerCase().decode(signature.substring(SIGNATURE_PREFIX.length()).toLowerCase());
+        } catch (IllegalArgumentException ex) {
+            throw new CustomWebApplicationException("Forbidden.", HttpStatus.SC_FORBIDDEN);
+        }
+        if (!MessageDigest.isEqual(expected, given)) {
+            throw new CustomWebApplicationException("Forbidden.", HttpStatus.SC_FORBIDDEN);
+        }
+    }
+
+    private static void checkEnabled(boolean on) {
+        if (!on) {
+            throw new CustomWebApplicationException("Webhooks are not enabled.", HttpStatus.SC_NOT_FOUND);
+        }
+    }
+}
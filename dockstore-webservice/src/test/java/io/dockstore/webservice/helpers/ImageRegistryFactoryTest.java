@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import io.dockstore.webservice.core.Container;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Which provider refreshes a container, going by the host its path starts with.
+ */
+public class ImageRegistryFactoryTest {
+
+    @After
+    public void clearPrivateRegistries() {
+        OciRegistry.setAllowedHosts(Collections.<String> emptySet());
+    }
+
+    @Test
+    public void findsProvidersByHost() {
+        assertThat(ImageRegistryFactory.getRegistryName(container("quay.io/ns/name"))).isEqualTo(Optional.of("quay.io"));
+        assertThat(ImageRegistryFactory.getRegistryName(container("registry.hub.docker.com/ns/name")))
+                .isEqualTo(Optional.of("registry.hub.docker.com"));
+        assertThat(ImageRegistryFactory.getRegistryName(container("docker.io/ns/name"))).isEqualTo(Optional.of("registry.hub.docker.com"));
+    }
+
+    @Test
+    public void findsOnlyConfiguredPrivateRegistries() {
+        final Container container = container("registry.example.org:5000/ns/name");
+        assertThat(ImageRegistryFactory.getRegistryName(container)).isEqualTo(Optional.absent());
+        OciRegistry.setAllowedHosts(Collections.singleton("registry.example.org:5000"));
+        assertThat(ImageRegistryFactory.getRegistryName(container)).isEqualTo(Optional.of("private registry"));
+        assertThat(ImageRegistryFactory.getRegistryHost(container)).isEqualTo("registry.example.org:5000");
+    }
+
+    private static Container container(String path) {
+        final Container container = new Container();
+        container.setPath(path);
+        return container;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * What the private registry client follows: next page links, token realms and registry hosts.
+ */
+public class OciRegistryTest {
+    private static final String TAGS = "https://registry.example.org/v2/ns/repo/tags/list";
+
+    @Test
+    public void followsNextPagesOnTheRegistry() {
+        assertThat(OciRegistry.getNextPage(TAGS, "</v2/ns/repo/tags/list?last=b&n=100>; rel=\"next\"")).isEqualTo(
+                "https://registry.example.org/v2/ns/repo/tags/list?last=b&n=100");
+        assertThat(OciRegistry.getNextPage(TAGS, "<https://registry.example.org:443/v2/ns/repo/tags/list?last=b>; rel=next")).isEqualTo(
+                "https://registry.example.org:443/v2/ns/repo/tags/list?last=b");
+    }
+
+    @Test
+    public void stopsAtTheLastPage() {
+        assertThat(OciRegistry.getNextPage(TAGS, null)).isNull();
+        assertThat(OciRegistry.getNextPage(TAGS, "</v2/ns/repo/tags/list?last=a>; rel=\"prev\"")).isNull();
+    }
+
+    @Test
+    public void doesNotFollowNextPagesOffTheRegistry() {
+        assertThat(OciRegistry.getNextPage(TAGS, "<https://evil.example.com/v2/ns/repo/tags/list>; rel=\"next\"")).isNull();
+        assertThat(OciRegistry.getNextPage(TAGS, "<http://registry.example.org/v2/ns/repo/tags/list>; rel=\"next\"")).isNull();
+        assertThat(OciRegistry.getNextPage(TAGS, "<https://registry.example.org:8443/v2/ns/repo/tags/list>; rel=\"next\"")).isNull();
+        assertThat(OciRegistry.getNextPage(TAGS, "<//169.254.169.254/latest/meta-data>; rel=\"next\"")).isNull();
+    }
+
+    @Test
+    public void buildsTokenUrlsFromBearerChallenges() {
+        assertThat(OciRegistry.getTokenUrl("Bearer realm=\"https://auth.example.org/token\",service=\"registry.example.org\"", "ns/repo"))
+                .isEqualTo(Optional.of("https://auth.example.org/token?scope=repository%3Ans%2Frepo%3Apull&service=registry.example.org"));
+        assertThat(OciRegistry.getTokenUrl("bearer realm=\"https://auth.example.org/token\",scope=\"repository:ns/repo:pull,push\"",
+                "ns/repo")).isEqualTo(Optional.of("https://auth.example.org/token?scope=repository%3Ans%2Frepo%3Apull%2Cpush"));
+    }
+
+    @Test
+    public void ignoresUnusableChallenges() {
+        assertThat(OciRegistry.getTokenUrl("Basic realm=\"registry\"", "ns/repo").isPresent()).isFalse();
+        assertThat(OciRegistry.getTokenUrl("Bearer service=\"registry.example.org\"", "ns/repo").isPresent()).isFalse();
+        assertThat(OciRegistry.getTokenUrl("Bearer realm=\"/token\"", "ns/repo").isPresent()).isFalse();
+        assertThat(OciRegistry.getTokenUrl("Bearer realm=\"file:///etc/passwd\"", "ns/repo").isPresent()).isFalse();
+    }
+
+    @Test
+    public void tellsRegistryHostsFromImageNames() {
+        assertThat(OciRegistry.getHost("registry.example.org/ns/repo")).isEqualTo(Optional.of("registry.example.org"));
+        assertThat(OciRegistry.getHost("localhost:5000/repo")).isEqualTo(Optional.of("localhost:5000"));
+        assertThat(OciRegistry.getHost("ns/repo").isPresent()).isFalse();
+        assertThat(OciRegistry.getHost("repo").isPresent()).isFalse();
+    }
+
+    @Test
+    public void rejectsLocalAddresses() {
+        assertThat(OciRegistry.isPublicAddress("localhost:5000")).isFalse();
+        assertThat(OciRegistry.isPublicAddress("127.0.0.1")).isFalse();
+        assertThat(OciRegistry.isPublicAddress("[::1]:5000")).isFalse();
+        assertThat(OciRegistry.isPublicAddress("169.254.169.254")).isFalse();
+        assertThat(OciRegistry.isPublicAddress("0.0.0.0")).isFalse();
+        assertThat(OciRegistry.isPublicAddress("8.8.8.8:5000")).isTrue();
+    }
+}
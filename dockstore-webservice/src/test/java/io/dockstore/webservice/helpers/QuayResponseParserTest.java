@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.helpers;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.dockstore.webservice.core.Tag;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The streaming parser keeps what a refresh needs from Quay.io responses, whatever else they hold and whichever fields are null or
+ * missing.
+ */
+public class QuayResponseParserTest {
+
+    @Test
+    public void readsTags() throws IOException {
+        final List<Tag> tags = QuayResponseParser.parseTags("{\"name\": \"repo\", \"is_public\": true, \"tags\": {"
+                + "\"1.0\": {\"name\": \"1.0\", \"image_id\": \"abc\", \"last_modified\": \"Tue, 1 Mar 2016 21:17:40 -0000\", "
+                + "\"size\": 1234, \"manifest\": {\"layers\": [1, 2, {\"a\": []}]}}}, \"description\": null}");
+        assertThat(tags).hasSize(1);
+        final Tag tag = tags.get(0);
+        assertThat(tag.getName()).isEqualTo("1.0");
+        assertThat(tag.getImageId()).isEqualTo("abc");
+        assertThat(tag.getLastModified().getTime()).isEqualTo(1456867060000L);
+        assertThat(tag.getSize()).isEqualTo(1234);
+    }
+
+    @Test
+    public void leavesNullAndMissingTagFieldsEmpty() throws IOException {
+        final List<Tag> tags = QuayResponseParser.parseTags("{\"tags\": {\"a\": {\"name\": \"a\", \"image_id\": null, "
+                + "\"last_modified\": null, \"size\": null}, \"b\": {\"name\": \"b\", \"last_modified\": \"yesterday\"}}}");
+        assertThat(tags).hasSize(2);
+        for (Tag tag : tags) {
+            assertThat(tag.getImageId()).isNull();
+            assertThat(tag.getLastModified()).isNull();
+            assertThat(tag.getSize()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void findsNoTagsWhenThereAreNone() throws IOException {
+        assertThat(QuayResponseParser.parseTags("{\"name\": \"repo\"}")).isEmpty();
+        assertThat(QuayResponseParser.parseTags("{\"tags\": null}")).isEmpty();
+        assertThat(QuayResponseParser.parseTags("{\"tags\": {}}")).isEmpty();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsResponsesThatAreNotObjects() throws IOException {
+        QuayResponseParser.parseTags("[]");
+    }
+
+    @Test
+    public void readsBuilds() throws IOException {
+        final List<ImageBuild> builds = QuayResponseParser.parseBuilds("{\"builds\": ["
+                + "{\"id\": \"1\", \"started\": \"Tue, 1 Mar 2016 21:17:40 -0000\", \"tags\": [\"latest\", \"1.0\"], \"logs\": [\"x\"], "
+                + "\"trigger_metadata\": {\"git_url\": \"git@github.com:a/b.git\", \"ref\": \"refs/heads/master\", \"commit_info\": {}}}, "
+                + "{\"id\": \"2\", \"started\": null, \"tags\": [], \"trigger_metadata\": null}, "
+                + "{\"id\": \"3\"}]}");
+        assertThat(builds).hasSize(3);
+
+        assertThat(builds.get(0).getId()).isEqualTo("1");
+        assertThat(builds.get(0).getStarted()).isNotNull();
+        assertThat(builds.get(0).getTags()).isEqualTo(Arrays.asList("latest", "1.0"));
+        assertThat(builds.get(0).getGitUrl()).isEqualTo("git@github.com:a/b.git");
+        assertThat(builds.get(0).getReference()).isEqualTo("refs/heads/master");
+
+        for (ImageBuild build : builds.subList(1, builds.size())) {
+            assertThat(build.getStarted()).isNull();
+            assertThat(build.getTags()).isEmpty();
+            assertThat(build.getGitUrl()).isNull();
+            assertThat(build.getReference()).isNull();
+        }
+    }
+
+    @Test
+    public void findsNoBuildsWhenThereAreNone() throws IOException {
+        assertThat(QuayResponseParser.parseBuilds("{}")).isEmpty();
+        assertThat(QuayResponseParser.parseBuilds("{\"builds\": null}")).isEmpty();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.HttpStatus;
+import org.glassfish.jersey.server.ParamException;
+import org.junit.Test;
+
+import io.dockstore.webservice.QueryParamExceptionMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Cursors and limits the client got wrong are answered with a 400.
+ */
+public class PaginationTest {
+
+    @Test
+    public void startsFromTheBeginningWithoutACursor() {
+        assertThat(Pagination.cursor(null)).isEqualTo(0);
+        assertThat(Pagination.cursor(42L)).isEqualTo(42);
+    }
+
+    @Test
+    public void rejectsNegativeCursors() {
+        try {
+            Pagination.cursor(-1L);
+            fail("expected a negative cursor to be rejected");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    @Test
+    public void rejectsOffsetsPastAnInt() {
+        assertThat(Pagination.offset((long) Integer.MAX_VALUE)).isEqualTo(Integer.MAX_VALUE);
+        try {
+            Pagination.offset(Integer.MAX_VALUE + 1L);
+            fail("expected an offset past Integer.MAX_VALUE to be rejected");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+
+    @Test
+    public void rejectsCursorsThatAreNotNumbers() {
+        // what Jersey throws for ?cursor=abc
+        final Response response = new QueryParamExceptionMapper().toResponse(new ParamException.QueryParamException(
+                new NumberFormatException("For input string: \"abc\""), "cursor", null));
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+        assertThat(response.getEntity().toString()).contains("cursor");
+    }
+
+    @Test
+    public void capsAndChecksLimits() {
+        assertThat(Pagination.limit(null)).isEqualTo(Pagination.DEFAULT_LIMIT);
+        assertThat(Pagination.limit(Pagination.MAX_LIMIT + 1)).isEqualTo(Pagination.MAX_LIMIT);
+        assertThat(Pagination.pageSize(null, null)).isNull();
+        try {
+            Pagination.limit(0);
+            fail("expected a limit of 0 to be rejected");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus()).isEqualTo(HttpStatus.SC_BAD_REQUEST);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 Collaboratory
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.dockstore.webservice.resources;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Calls under a rate limit wait their turn, and are turned away with a Retry-After when that turn is too far off.
+ */
+public class RateLimitGovernorTest {
+    private static final String HOST = "api.github.com";
+    private static final String TOKEN = "Bearer abc";
+    private static final int TOO_MANY_REQUESTS = 429;
+    // the second of two paced calls waits at least this long
+    private static final long PACED_MILLIS = 50;
+
+    private final RateLimitGovernor governor = new RateLimitGovernor();
+
+    @Test
+    public void letsCallsThroughWhilePlentyIsLeft() {
+        governor.record(HOST, TOKEN, HttpStatus.SC_OK, headers(5000, 4000, resetIn(3600)));
+        governor.acquire(HOST, TOKEN);
+    }
+
+    @Test
+    public void turnsCallsAwayUntilTheRetryAfter() {
+        governor.setMaxWaitMillis(TimeUnit.SECONDS.toMillis(10));
+        assertThat(governor.record(HOST, TOKEN, TOO_MANY_REQUESTS, name -> HttpHeaders.RETRY_AFTER.equals(name) ? "30" : null)).isTrue();
+        try {
+            governor.acquire(HOST, TOKEN);
+            fail("expected the call to be turned away");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+            assertThat(Long.parseLong(ex.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER))).isBetween(29L, 30L);
+        }
+    }
+
+    @Test
+    public void keepsBudgetsApartPerCredentials() {
+        governor.record(HOST, TOKEN, HttpStatus.SC_FORBIDDEN, headers(5000, 0, resetIn(3600)));
+        governor.acquire(HOST, "Bearer other");
+        governor.acquire(HOST, null);
+    }
+
+    @Test
+    public void holdsCallsBackWhenLittleIsLeft() {
+        // 10 calls left over the next one to two seconds, one every 100 to 200ms
+        governor.record(HOST, TOKEN, HttpStatus.SC_OK, headers(5000, 10, System.currentTimeMillis() / 1000 + 2));
+        final long start = System.nanoTime();
+        governor.acquire(HOST, TOKEN);
+        governor.acquire(HOST, TOKEN);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(PACED_MILLIS);
+    }
+
+    @Test
+    public void turnsCallsAwayThatWouldWaitTooLong() {
+        governor.setMaxWaitMillis(0);
+        governor.record(HOST, TOKEN, HttpStatus.SC_OK, headers(5000, 10, resetIn(3600)));
+        governor.acquire(HOST, TOKEN);
+        try {
+            governor.acquire(HOST, TOKEN);
+            fail("expected the second call to be turned away rather than wait for its slot");
+        } catch (WebApplicationException ex) {
+            assertThat(ex.getResponse().getStatus()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private static long resetIn(long seconds) {
+        return System.currentTimeMillis() / 1000 + seconds;
+    }
+
+    private static Function<String, String> headers(long limit, long remaining, long reset) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("X-RateLimit-Limit", Long.toString(limit));
+        headers.put("X-RateLimit-Remaining", Long.toString(remaining));
+        headers.put("X-RateLimit-Reset", Long.toString(reset));
+        return headers::get;
+    }
+}
@@ -44,7 +44,8 @@ public enum ModeEnum {
 
 public enum RegistryEnum {
   QUAY_IO("QUAY_IO"),
-  DOCKER_HUB("DOCKER_HUB");
+  DOCKER_HUB("DOCKER_HUB"),
+  PRIVATE_REGISTRY("PRIVATE_REGISTRY");
 
   private String value;
 
@@ -0,0 +1,105 @@
+package io.swagger.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Per-call latency of ApiClient against a local server, comparing a client built for every call (the
+ * previous behaviour of invokeAPI) with one long-lived pooled client.
+ *
+ * Not picked up by the default surefire includes; run with
+ * <pre>mvn test -pl swagger-java-client -Dtest=ApiClientBenchmark</pre>
+ */
+public class ApiClientBenchmark {
+  private static final int WARMUP_CALLS = 200;
+  private static final int MEASURED_CALLS = 2000;
+  private static final byte[] BODY = "\"pong\"".getBytes();
+
+  private static HttpServer server;
+  private static String basePath;
+
+  @BeforeClass
+  public static void startServer() throws IOException {
+    // without this the JDK server's headers and body meet the client's delayed ACK on kept-alive connections
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ping", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, BODY.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(BODY);
+        out.close();
+      }
+    });
+    server.start();
+    basePath = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void perCallLatency() throws ApiException {
+    // previous behaviour: a new JAX-RS client (provider scan, connector, connection) on every call
+    double fresh = measure(new Caller() {
+      @Override
+      public String call() throws ApiException {
+        ApiClient client = new ApiClient().setBasePath(basePath);
+        try {
+          return ping(client);
+        } finally {
+          client.getHttpClient().close();
+        }
+      }
+    });
+
+    final ApiClient shared = new ApiClient().setBasePath(basePath);
+    double reused = measure(new Caller() {
+      @Override
+      public String call() throws ApiException {
+        return ping(shared);
+      }
+    });
+
+    System.out.println(String.format("ApiClient per-call latency: new client %.3f ms, reused client %.3f ms (%.1fx)",
+        fresh, reused, fresh / reused));
+    Assert.assertTrue("reusing the client should not be slower", reused <= fresh);
+  }
+
+  private interface Caller {
+    String call() throws ApiException;
+  }
+
+  private static double measure(Caller caller) throws ApiException {
+    for (int i = 0; i < WARMUP_CALLS; i++) {
+      Assert.assertEquals("pong", caller.call());
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_CALLS; i++) {
+      caller.call();
+    }
+    return (System.nanoTime() - start) / 1e6 / MEASURED_CALLS;
+  }
+
+  private static String ping(ApiClient client) throws ApiException {
+    return client.invokeAPI("/ping", "GET", new ArrayList<Pair>(), null, new HashMap<String, String>(),
+        new HashMap<String, Object>(), "application/json", "application/json", new String[0], new TypeRef<String>() {
+        });
+  }
+}
@@ -0,0 +1,96 @@
+package io.swagger.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ApiClient keeps one pooled client, so consecutive calls go over the same kept-alive connection and every response hands its
+ * connection back, error or not. {@link ApiClientBenchmark} measures what that saves per call.
+ */
+public class ApiClientTest {
+  private static final int CALLS = 50;
+  private static final int TIMEOUT_MILLIS = 30000;
+  private static final byte[] PONG = "\"pong\"".getBytes();
+
+  private HttpServer server;
+  private ApiClient client;
+  // the client side of every connection the server was called on
+  private final Set<InetSocketAddress> connections = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+  @Before
+  public void startServer() throws IOException {
+    // without this the JDK server's headers and body meet the client's delayed ACK on kept-alive connections
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/ping", respond(200));
+    server.createContext("/missing", respond(404));
+    server.start();
+    client = new ApiClient().setBasePath("http://localhost:" + server.getAddress().getPort());
+  }
+
+  @After
+  public void stopServer() {
+    client.getHttpClient().close();
+    server.stop(0);
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void reusesClientAndConnection() throws ApiException {
+    final Object httpClient = client.getHttpClient();
+    for (int i = 0; i < CALLS; i++) {
+      Assert.assertEquals("pong", call("/ping"));
+    }
+    Assert.assertSame(httpClient, client.getHttpClient());
+    Assert.assertEquals(1, connections.size());
+  }
+
+  @Test(timeout = TIMEOUT_MILLIS)
+  public void releasesConnectionsOfErrors() throws ApiException {
+    // more errors than the pool has connections per host, a leaked connection would leave the last calls waiting forever
+    for (int i = 0; i < CALLS; i++) {
+      try {
+        call("/missing");
+        Assert.fail("a 404 should throw");
+      } catch (ApiException ex) {
+        Assert.assertEquals(404, ex.getCode());
+      }
+    }
+    Assert.assertEquals("pong", call("/ping"));
+    Assert.assertEquals(1, connections.size());
+  }
+
+  private HttpHandler respond(final int status) {
+    return new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, PONG.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(PONG);
+        out.close();
+      }
+    };
+  }
+
+  private String call(String path) throws ApiException {
+    return client.invokeAPI(path, "GET", new ArrayList<Pair>(), null, new HashMap<String, String>(),
+        new HashMap<String, Object>(), "application/json", "application/json", new String[0], new TypeRef<String>() {
+        });
+  }
+}
@@ -10,6 +10,9 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.filter.LoggingFilter;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
@@ -45,7 +48,11 @@ import io.swagger.quay.client.auth.OAuth;
 
 @javax.annotation.Generated(value = "class io.swagger.codegen.languages.JavaClientCodegen", date = "2015-12-11T12:10:45.220-05:00")
 public class ApiClient {
-  private Map<String, Client> hostMap = new HashMap<String, Client>();
+  private static final int MAX_CONNECTIONS = 50;
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+
+  private Client httpClient;
+  private boolean sharedHttpClient = false;
   private Map<String, String> defaultHeaderMap = new HashMap<String, String>();
   private boolean debugging = false;
   private String basePath = "https://quay.io/";
@@ -199,11 +206,59 @@ public class ApiClient {
    *
    * @param debugging To enable (true) or disable (false) debugging
    */
-  public ApiClient setDebugging(boolean debugging) {
+  public synchronized ApiClient setDebugging(boolean debugging) {
+    if (debugging != this.debugging && httpClient != null && !sharedHttpClient) {
+      // The logging filter is part of the client configuration, so the next call builds a new client.
+      httpClient.close();
+      httpClient = null;
+    }
     this.debugging = debugging;
     return this;
   }
 
+  /**
+   * Get the JAX-RS client that requests are sent through, building it on first use.
+   */
+  public synchronized Client getHttpClient() {
+    if (httpClient == null) {
+      httpClient = buildHttpClient(debugging);
+    }
+    return httpClient;
+  }
+
+  /**
+   * Set the JAX-RS client that requests are sent through. The client is
+   * thread-safe, so one can be shared by several ApiClient instances that
+   * differ only in their default headers or base path. A client set here is
+   * never closed by this ApiClient.
+   *
+   * @param httpClient The client to use for all subsequent requests
+   */
+  public synchronized ApiClient setHttpClient(Client httpClient) {
+    this.httpClient = httpClient;
+    this.sharedHttpClient = httpClient != null;
+    return this;
+  }
+
+  /**
+   * Build a client backed by a pool of keep-alive connections, so that
+   * consecutive calls skip the provider scan and reuse open (TLS) connections.
+   */
+  protected Client buildHttpClient(boolean debugging) {
+    final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(MAX_CONNECTIONS);
+    connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+    final ClientConfig clientConfig = new ClientConfig();
+    clientConfig.connectorProvider(new ApacheConnectorProvider());
+    clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+    clientConfig.register(MultiPartFeature.class);
+    if (debugging) {
+      clientConfig.register(LoggingFilter.class);
+    }
+    return ClientBuilder.newClient(clientConfig);
+  }
+
   /**
    * Get the date format used to parse/format date parameters.
    */
@@ -417,14 +472,7 @@ public class ApiClient {
   public <T> T invokeAPI(String path, String method, List<Pair> queryParams, Object body, Map<String, String> headerParams, Map<String, Object> formParams, String accept, String contentType, String[] authNames, TypeRef returnType) throws ApiException {
     updateParamsForAuth(authNames, queryParams, headerParams);
 
-    final ClientConfig clientConfig = new ClientConfig();
-    clientConfig.register(MultiPartFeature.class);
-    if (debugging) {
-      clientConfig.register(LoggingFilter.class);
-    }
-    Client client = ClientBuilder.newClient(clientConfig);
-
-    WebTarget target = client.target(this.basePath).path(path);
+    WebTarget target = getHttpClient().target(this.basePath).path(path);
 
     if (queryParams != null) {
       for (Pair queryParam : queryParams) {
@@ -506,32 +554,37 @@ public class ApiClient {
       throw new ApiException(500, "unknown method type " + method);
     }
 
-    statusCode = response.getStatusInfo().getStatusCode();
-    responseHeaders = buildResponseHeaders(response);
+    try {
+      statusCode = response.getStatusInfo().getStatusCode();
+      responseHeaders = buildResponseHeaders(response);
 
-    if (response.getStatus() == Status.NO_CONTENT.getStatusCode()) {
-      return null;
-    } else if (response.getStatusInfo().getFamily().equals(Status.Family.SUCCESSFUL)) {
-      if (returnType == null)
+      if (response.getStatus() == Status.NO_CONTENT.getStatusCode()) {
         return null;
-      else
-        return deserialize(response, returnType);
-    } else {
-      String message = "error";
-      String respBody = null;
-      if (response.hasEntity()) {
-        try {
-          respBody = String.valueOf(response.readEntity(String.class));
-          message = respBody;
-        } catch (RuntimeException e) {
-          // e.printStackTrace();
+      } else if (response.getStatusInfo().getFamily().equals(Status.Family.SUCCESSFUL)) {
+        if (returnType == null)
+          return null;
+        else
+          return deserialize(response, returnType);
+      } else {
+        String message = "error";
+        String respBody = null;
+        if (response.hasEntity()) {
+          try {
+            respBody = String.valueOf(response.readEntity(String.class));
+            message = respBody;
+          } catch (RuntimeException e) {
+            // e.printStackTrace();
+          }
         }
+        throw new ApiException(
+          response.getStatus(),
+          message,
+          buildResponseHeaders(response),
+          respBody);
       }
-      throw new ApiException(
-        response.getStatus(),
-        message,
-        buildResponseHeaders(response),
-        respBody);
+    } finally {
+      // Hand the connection back to the pool even when the body was not read.
+      response.close();
     }
   }
 